@@ -0,0 +1,105 @@
+package net.e175.klaus.archiveparser.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveIDComparator;
+import net.e175.klaus.archiveparser.id.ArchiveType;
+import net.e175.klaus.archiveparser.id.MavenArchiveID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sorting and hashing archive IDs, as done while parsing and indexing. The string based variants do what ID
+ * comparisons used to do, building "name:version:type" for every call; run with "-prof gc" to compare allocation
+ * rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ArchiveIDBenchmark {
+
+	private static final Comparator<ArchiveID> BY_STRING = new Comparator<ArchiveID>() {
+		@Override
+		public int compare(final ArchiveID o1, final ArchiveID o2) {
+			return asString(o1).compareTo(asString(o2));
+		}
+	};
+
+	@Param("100000")
+	public int jars;
+
+	private List<ArchiveID> ids;
+	private Map<ArchiveID, ArchiveID> byId;
+	private Map<String, ArchiveID> byString;
+
+	@Setup
+	public void createIds() {
+		final Random random = new Random(42);
+		ids = new ArrayList<ArchiveID>(jars);
+		for (int i = 0; i < jars; i++) {
+			ids.add(new MavenArchiveID("artifact" + random.nextInt(jars / 5 + 1), "1." + random.nextInt(10) + "."
+					+ random.nextInt(10), ArchiveType.JAR));
+		}
+
+		byId = new HashMap<ArchiveID, ArchiveID>();
+		byString = new HashMap<String, ArchiveID>();
+		for (final ArchiveID id : ids) {
+			byId.put(id, id);
+			byString.put(asString(id), id);
+		}
+	}
+
+	private static String asString(final ArchiveID id) {
+		return id.getName() + ArchiveID.PART_SEPARATOR + id.getVersion() + ArchiveID.PART_SEPARATOR + id.getType();
+	}
+
+	@Benchmark
+	public List<ArchiveID> sortStructurally() {
+		final List<ArchiveID> sorted = new ArrayList<ArchiveID>(ids);
+		Collections.sort(sorted, ArchiveIDComparator.INSTANCE);
+		return sorted;
+	}
+
+	@Benchmark
+	public List<ArchiveID> sortByString() {
+		final List<ArchiveID> sorted = new ArrayList<ArchiveID>(ids);
+		Collections.sort(sorted, BY_STRING);
+		return sorted;
+	}
+
+	@Benchmark
+	public void lookUpByCachedHash(final Blackhole blackhole) {
+		for (final ArchiveID id : ids) {
+			blackhole.consume(byId.get(id));
+		}
+	}
+
+	@Benchmark
+	public void lookUpByString(final Blackhole blackhole) {
+		for (final ArchiveID id : ids) {
+			blackhole.consume(byString.get(asString(id)));
+		}
+	}
+}
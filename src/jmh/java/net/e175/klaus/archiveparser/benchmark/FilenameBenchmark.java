@@ -0,0 +1,80 @@
+package net.e175.klaus.archiveparser.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveType;
+import net.e175.klaus.archiveparser.id.MavenArchiveID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing archive filenames into IDs. The regex variant does what MavenArchiveID.parse used to do, including the
+ * separate applicability check done by EarFilter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilenameBenchmark {
+	private static final Pattern MVN_PATTERN = Pattern.compile("(.*)\\.(j|w|e|r)ar", Pattern.CASE_INSENSITIVE);
+	private static final Pattern NAME_VERSION_PATTERN = Pattern.compile("(.*)-(\\d{1}.*)", Pattern.CASE_INSENSITIVE);
+
+	@Param("100000")
+	public int filenames;
+
+	private final MavenArchiveID parser = new MavenArchiveID();
+	private List<String> names;
+
+	@Setup
+	public void createFilenames() {
+		final Random random = new Random(42);
+		final String[] suffixes = { ".jar", ".jar", ".jar", ".war", ".ear", ".txt" };
+		names = new ArrayList<String>(filenames);
+		for (int i = 0; i < filenames; i++) {
+			names.add("org-example-component-library" + random.nextInt(1000) + "-" + random.nextInt(10) + "."
+					+ random.nextInt(20) + ".1-SNAPSHOT" + suffixes[random.nextInt(suffixes.length)]);
+		}
+	}
+
+	@Benchmark
+	public void tokenize(final Blackhole blackhole) {
+		for (final String name : names) {
+			blackhole.consume(parser.tryParse(name));
+		}
+	}
+
+	@Benchmark
+	public void matchRegex(final Blackhole blackhole) {
+		for (final String name : names) {
+			if (MVN_PATTERN.matcher(name).matches()) {
+				final Matcher matcher = MVN_PATTERN.matcher(name);
+				matcher.matches();
+				final Matcher nameMatcher = NAME_VERSION_PATTERN.matcher(matcher.group(1));
+				if (nameMatcher.matches()) {
+					blackhole.consume(new MavenArchiveID(nameMatcher.group(1), nameMatcher.group(2), ArchiveType.JAR));
+				} else {
+					blackhole.consume(new MavenArchiveID(matcher.group(1), ArchiveID.UNKNOWN_VERSION, ArchiveType.JAR));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package net.e175.klaus.archiveparser.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.CentralDirectoryScanner;
+import net.e175.klaus.archiveparser.core.TrueZipArchiveScanner;
+import net.e175.klaus.archiveparser.core.UniqueJarFactory;
+import net.e175.klaus.archiveparser.id.ArchiveIDProvider;
+import net.e175.klaus.archiveparser.id.MavenArchiveIDProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing synthetic EARs: a single EAR without deduplication (ArchiveFile construction), and all EARs with shared
+ * JARs deduplicated by UniqueJarFactory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "truezip", "centraldirectory" })
+	public String scanner;
+
+	@Param("20")
+	public int ears;
+
+	@Param("1")
+	public int warsPerEar;
+
+	@Param("30")
+	public int jarsPerArchive;
+
+	@Param("200")
+	public int distinctJars;
+
+	private final ArchiveIDProvider idProvider = new MavenArchiveIDProvider();
+	private ArchiveScanner archiveScanner;
+	private SyntheticArchives archives;
+	private List<File> files;
+	private int next;
+
+	@Setup
+	public void createArchives() throws IOException {
+		archiveScanner = "truezip".equals(scanner) ? new TrueZipArchiveScanner() : new CentralDirectoryScanner();
+		archives = new SyntheticArchives(ears, warsPerEar, jarsPerArchive, distinctJars, 3);
+		files = archives.create();
+	}
+
+	@TearDown
+	public void deleteArchives() {
+		archives.delete();
+	}
+
+	@Benchmark
+	public ArchiveFile constructArchiveFile() {
+		final File ear = files.get(next++ % files.size());
+		return new ArchiveFile(ear, idProvider, null, archiveScanner);
+	}
+
+	@Benchmark
+	public UniqueJarFactory deduplicateJars() {
+		final UniqueJarFactory factory = new UniqueJarFactory(archiveScanner);
+		for (final File ear : files) {
+			new ArchiveFile(ear, idProvider, factory, archiveScanner);
+		}
+		return factory;
+	}
+}
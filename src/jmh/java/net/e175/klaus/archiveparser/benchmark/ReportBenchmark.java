@@ -0,0 +1,86 @@
+package net.e175.klaus.archiveparser.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.CentralDirectoryScanner;
+import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarParser;
+import net.e175.klaus.archiveparser.report.EarJarSpreadsheet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Mapping JARs to EARs and writing the spreadsheet, for synthetic EARs parsed once up front. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportBenchmark {
+
+	@Param("200")
+	public int ears;
+
+	@Param("1")
+	public int warsPerEar;
+
+	@Param("30")
+	public int jarsPerArchive;
+
+	@Param("500")
+	public int distinctJars;
+
+	private SyntheticArchives archives;
+	private EarJarParser parser;
+	private List<ArchiveFile> parsed;
+	private EarJarSpreadsheet spreadsheet;
+	private File workbook;
+
+	@Setup
+	public void parseArchives() throws IOException {
+		archives = new SyntheticArchives(ears, warsPerEar, jarsPerArchive, distinctJars, 3);
+		final List<File> files = archives.create();
+
+		parser = new EarJarParser();
+		parser.setArchiveScanner(new CentralDirectoryScanner());
+		parsed = parser.parseFiles(files);
+
+		spreadsheet = new EarJarSpreadsheet();
+		spreadsheet.analyze(archives.getDirectory(), new EarFilter(), parser);
+		workbook = File.createTempFile("report-benchmark", ".xlsx");
+	}
+
+	@TearDown
+	public void deleteArchives() {
+		archives.delete();
+		workbook.delete();
+	}
+
+	@Benchmark
+	public Map<ArchiveID, List<ArchiveFile>> getJarEarIdMap() {
+		return parser.getJarEarIdMap(parsed);
+	}
+
+	@Benchmark
+	public File createWorkbook() throws IOException {
+		spreadsheet.createWorkbook(workbook);
+		return workbook;
+	}
+}
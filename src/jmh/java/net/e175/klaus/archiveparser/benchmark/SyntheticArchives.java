@@ -0,0 +1,142 @@
+package net.e175.klaus.archiveparser.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates EARs with JARs and WARs (which contain JARs again) in a temporary directory. JARs are picked at random
+ * from a pool of distinct names and versions, so a given JAR is usually shared by several EARs, like in a real
+ * application landscape.
+ */
+final class SyntheticArchives {
+	private final int ears;
+	private final int warsPerEar;
+	private final int jarsPerArchive;
+	private final int distinctJars;
+	private final int versionsPerJar;
+
+	private final Random random = new Random(42);
+	private File directory;
+
+	/**
+	 * @param ears
+	 *            number of EARs to create
+	 * @param warsPerEar
+	 *            WARs in each EAR
+	 * @param jarsPerArchive
+	 *            JARs directly in each EAR and in each WAR
+	 * @param distinctJars
+	 *            number of different JAR names to choose from
+	 * @param versionsPerJar
+	 *            number of different versions of each JAR name
+	 */
+	SyntheticArchives(final int ears, final int warsPerEar, final int jarsPerArchive, final int distinctJars,
+			final int versionsPerJar) {
+		this.ears = ears;
+		this.warsPerEar = warsPerEar;
+		this.jarsPerArchive = jarsPerArchive;
+		this.distinctJars = distinctJars;
+		this.versionsPerJar = versionsPerJar;
+	}
+
+	/** @return the EARs created, in the order EarFilter lists them */
+	List<File> create() throws IOException {
+		directory = File.createTempFile("synthetic-ears", "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("cannot create directory " + directory);
+		}
+
+		final List<File> files = new ArrayList<File>(ears);
+		for (int i = 0; i < ears; i++) {
+			final File ear = new File(directory, String.format("app%05dR001.ear", i));
+			final OutputStream out = new FileOutputStream(ear);
+			try {
+				out.write(createEar(i));
+			} finally {
+				out.close();
+			}
+			files.add(ear);
+		}
+		return files;
+	}
+
+	File getDirectory() {
+		return directory;
+	}
+
+	void delete() {
+		if (directory != null) {
+			for (final File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	private byte[] createEar(final int number) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ZipOutputStream zip = new ZipOutputStream(bytes);
+		try {
+			addJars(zip, "lib/");
+			for (int i = 0; i < warsPerEar; i++) {
+				add(zip, String.format("web%d-%d.war", number, i), createWar());
+			}
+			add(zip, "META-INF/application.xml", new byte[64]);
+		} finally {
+			zip.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private byte[] createWar() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ZipOutputStream zip = new ZipOutputStream(bytes);
+		try {
+			addJars(zip, "WEB-INF/lib/");
+			add(zip, "WEB-INF/web.xml", new byte[64]);
+		} finally {
+			zip.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private void addJars(final ZipOutputStream zip, final String folder) throws IOException {
+		final Set<String> names = new HashSet<String>();
+		for (int i = 0; i < jarsPerArchive; i++) {
+			final String name = String.format("library%d-1.%d.jar", random.nextInt(distinctJars),
+					random.nextInt(versionsPerJar));
+			if (names.add(name)) {
+				add(zip, folder + name, createJar(name));
+			}
+		}
+	}
+
+	private static byte[] createJar(final String name) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ZipOutputStream zip = new ZipOutputStream(bytes);
+		try {
+			add(zip, "META-INF/MANIFEST.MF", ("Manifest-Version: 1.0\nImplementation-Title: " + name + "\n")
+					.getBytes("UTF-8"));
+			add(zip, "com/example/Library.class", new byte[512]);
+		} finally {
+			zip.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void add(final ZipOutputStream zip, final String name, final byte[] content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content);
+		zip.closeEntry();
+	}
+}
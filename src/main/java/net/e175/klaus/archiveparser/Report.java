@@ -3,10 +3,32 @@ package net.e175.klaus.archiveparser;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
+import net.e175.klaus.archiveparser.cache.CachingArchiveScanner;
+import net.e175.klaus.archiveparser.cache.ParseCache;
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.CentralDirectoryScanner;
+import net.e175.klaus.archiveparser.core.TrueZipArchiveScanner;
+import net.e175.klaus.archiveparser.core.UniqueJarFactory;
+import net.e175.klaus.archiveparser.metrics.Metrics;
+import net.e175.klaus.archiveparser.metrics.MetricsListener;
+import net.e175.klaus.archiveparser.metrics.Phase;
+import net.e175.klaus.archiveparser.report.ArchiveSink;
 import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarParser;
 import net.e175.klaus.archiveparser.report.EarJarSpreadsheet;
+import net.e175.klaus.archiveparser.report.EarJarTextReport;
+import net.e175.klaus.archiveparser.report.EntryIndex;
+import net.e175.klaus.archiveparser.report.Pipeline;
+import net.e175.klaus.archiveparser.zip.CentralDirectory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,31 +37,328 @@ public final class Report {
 
 	private static final Logger LOG = LoggerFactory.getLogger(Report.class);
 
+	/** system property to set the number of EARs parsed concurrently (default: number of available processors) */
+	public static final String PARALLELISM_PROPERTY = "archiveparser.parallelism";
+
+	/**
+	 * system property to choose how archives are scanned: "truezip" (default), "centraldirectory" (reads ZIP central
+	 * directories only, without extracting nested archives) or "mapped" (like centraldirectory, but memory-maps EARs)
+	 */
+	public static final String SCANNER_PROPERTY = "archiveparser.scanner";
+
+	/**
+	 * system property naming a file to cache parse results in between runs (default: no caching); ignored while
+	 * looking for duplicate classes, as the cache doesn't keep the entries needed for that
+	 */
+	public static final String CACHE_PROPERTY = "archiveparser.cache";
+
+	/**
+	 * system property to write the report with the given number of rows per sheet kept in memory, flushing the rest
+	 * to temp files; JAR versions then go to cells instead of comments (default: 0, keep the whole workbook in memory)
+	 */
+	public static final String ROW_WINDOW_PROPERTY = "archiveparser.rowwindow";
+
+	/**
+	 * system property to choose the report format: "xlsx" (default), "csv" or "jsonl". CSV and JSON Lines reports are
+	 * written to three files named after the output file, one for each view.
+	 */
+	public static final String FORMAT_PROPERTY = "archiveparser.format";
+
+	/**
+	 * system property to choose how JARs are recognised as the same: "name" (default), "content" (by CRC-32 and size,
+	 * which catches renamed copies) or "content_digest" (also by SHA-1). Content identity needs a central directory
+	 * scanner, with or without cache; with TrueZIP, JARs are still recognised by name.
+	 */
+	public static final String JAR_IDENTITY_PROPERTY = "archiveparser.jaridentity";
+
+	/**
+	 * system property to limit how many levels of archives are opened (default: all). As JARs cannot contain archives,
+	 * 1 gives the same report without opening each JAR.
+	 */
+	public static final String MAX_DEPTH_PROPERTY = "archiveparser.maxdepth";
+
+	/** system property to log how long each phase took at the end, if "true" (default: false, measure nothing) */
+	public static final String METRICS_PROPERTY = "archiveparser.metrics";
+
+	/**
+	 * system property to look for EARs in subdirectories too, if "true" (default: false, only in the directories
+	 * given). Directories are then read in parallel, and EARs are parsed as they are found.
+	 */
+	public static final String RECURSIVE_PROPERTY = "archiveparser.recursive";
+
+	/** system property setting the number of directories read at once when looking for EARs recursively (default: 4) */
+	public static final String DIRECTORY_READS_PROPERTY = "archiveparser.directoryreads";
+
+	/** system property with comma-separated globs an EAR must match one of, see EarFilter.setIncludes */
+	public static final String INCLUDE_PROPERTY = "archiveparser.include";
+
+	/** system property with comma-separated globs of EARs and directories to skip, see EarFilter.setExcludes */
+	public static final String EXCLUDE_PROPERTY = "archiveparser.exclude";
+
+	/**
+	 * system property setting how many EARs each queue between two stages of the report pipeline can hold (default:
+	 * twice the parallelism), see Pipeline
+	 */
+	public static final String QUEUE_CAPACITY_PROPERTY = "archiveparser.queuecapacity";
+
+	/**
+	 * system property: parse each EAR in a virtual thread of its own, with at most this many EARs open at once
+	 * (default: 0, i.e. use the parallelism's number of platform threads). The archives nested in an EAR are still
+	 * read one after the other, see EarJarParser.setVirtualThreads
+	 */
+	public static final String VIRTUAL_THREADS_PROPERTY = "archiveparser.virtualthreads";
+
+	/**
+	 * system property setting how many top-level archives the TrueZIP scanner keeps mounted after parsing them
+	 * (default: 0)
+	 */
+	public static final String KEPT_MOUNTED_PROPERTY = "archiveparser.keptmounted";
+
+	/**
+	 * system property: index the classes in all JARs and log those found in more than one JAR of an EAR; needs the
+	 * centraldirectory or mapped scanner
+	 */
+	public static final String DUPLICATE_CLASSES_PROPERTY = "archiveparser.duplicateclasses";
+
+	/**
+	 * system property setting the size in bytes up to which the centraldirectory and mapped scanners inflate
+	 * compressed nested archives into memory; larger ones are inflated into temp files (default: 64 MB)
+	 */
+	public static final String MAX_INFLATED_SIZE_PROPERTY = "archiveparser.maxinflatedsize";
+
+	/** number of duplicate classes logged per EAR */
+	private static final int DUPLICATE_CLASSES_LOGGED = 5;
+
 	private Report() {
 	}
 
 	public static void main(final String[] args) throws IOException {
 		if (args.length < 1 || args.length > 2) {
-			LOG.error("usage: {} <eardirectory> [outputfile.xlsx]", Report.class);
+			LOG.error("usage: {} <eardirectory>[{}<eardirectory>...] [outputfile]", Report.class,
+					File.pathSeparator);
 			System.exit(1); // NOPMD
 		}
 
-		final String directory = args[0];
+		final String format = System.getProperty(FORMAT_PROPERTY, "xlsx").toLowerCase(Locale.ENGLISH);
+		final String directories = args[0];
 		final String target;
 		if (args.length >= 2) {
 			target = args[1];
 		} else {
 			final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-			target = "ears_" + dateFormat.format(new Date()) + ".xlsx";
+			target = "ears_" + dateFormat.format(new Date()) + "." + format;
 		}
 
-		LOG.info("analyzing {} and writing report to XLSX file {} ", directory, target);
+		final int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
 
-		final EarJarSpreadsheet spread = new EarJarSpreadsheet();
-		spread.analyze(new File(directory), new EarFilter());
-		spread.createWorkbook(new File(target));
+		LOG.info("analyzing {} and writing {} report to {} ", new Object[] { directories, format, target });
 
+		final EarJarParser parser = new EarJarParser(parallelism);
+		final String scannerName = System.getProperty(SCANNER_PROPERTY, "truezip").toLowerCase(Locale.ENGLISH);
+		final ArchiveScanner scanner = createArchiveScanner(scannerName);
+		final UniqueJarFactory.JarIdentity identity = UniqueJarFactory.JarIdentity.valueOf(System.getProperty(
+				JAR_IDENTITY_PROPERTY, "name").toUpperCase(Locale.ENGLISH));
+		final EntryIndex entryIndex = Boolean.getBoolean(DUPLICATE_CLASSES_PROPERTY) ? new EntryIndex() : null;
+		final String cacheFile = System.getProperty(CACHE_PROPERTY);
+		final ParseCache cache;
+		if (cacheFile != null && entryIndex != null) {
+			// the cache doesn't keep entries, so it would leave nothing to index
+			LOG.warn("parse cache {} is not used while looking for duplicate classes", cacheFile);
+			cache = null;
+		} else {
+			cache = cacheFile == null ? null : new ParseCache(new File(cacheFile), ParseCache.DEFAULT_MAX_ENTRIES,
+					false, scannerName, identity == UniqueJarFactory.JarIdentity.CONTENT_DIGEST);
+		}
+		parser.setArchiveScanner(cache == null ? scanner : new CachingArchiveScanner(scanner, cache));
+		parser.setMaxDepth(Integer.getInteger(MAX_DEPTH_PROPERTY, ArchiveFile.UNLIMITED_DEPTH));
+		parser.setJarIdentity(identity);
+		final Metrics metrics = Boolean.getBoolean(METRICS_PROPERTY) ? new Metrics() : null;
+		parser.setMetricsListener(metrics);
+		parser.setIndexEntries(entryIndex != null);
+		final List<ArchiveSink> moreSinks = new ArrayList<ArchiveSink>();
+		if (entryIndex != null) {
+			moreSinks.add(measured(entryIndex, Phase.INDEX, metrics));
+		}
+
+		final Iterator<File> ears = findEars(directories, metrics);
+		final int maxOpenArchives = Integer.getInteger(VIRTUAL_THREADS_PROPERTY, 0);
+		parser.setVirtualThreads(maxOpenArchives);
+		final int concurrency = maxOpenArchives > 0 ? maxOpenArchives : parallelism;
+		final Pipeline pipeline = new Pipeline(parser, Integer.getInteger(QUEUE_CAPACITY_PROPERTY, 2 * concurrency));
+		try {
+			if ("xlsx".equals(format)) {
+				writeSpreadsheet(ears, pipeline, metrics, new File(target), moreSinks);
+			} else {
+				writeTextReport(ears, pipeline, metrics, createTextFormat(format), new File(target), moreSinks);
+			}
+		} finally {
+			if (ears instanceof EarFilter.EarWalk) {
+				// stop searching if writing the report failed
+				((EarFilter.EarWalk) ears).close();
+			}
+		}
+		if (entryIndex != null) {
+			logDuplicateClasses(entryIndex);
+		}
+		for (final Pipeline.QueueStatistics queue : pipeline.getQueueStatistics()) {
+			LOG.info("queue {}", queue);
+		}
+		if (scanner instanceof TrueZipArchiveScanner) {
+			((TrueZipArchiveScanner) scanner).unmountReleased();
+			LOG.info("{}", scanner);
+		}
+
+		if (cache != null) {
+			cache.save();
+		}
+
+		if (metrics != null) {
+			LOG.info("metrics (times of concurrent phases add up):\n{}", metrics.summary());
+		}
 		LOG.info("done.");
 	}
 
+	private static Iterator<File> findEars(final String directories, final MetricsListener metricsListener) {
+		final EarFilter filter = new EarFilter();
+		final String includes = System.getProperty(INCLUDE_PROPERTY);
+		if (includes != null) {
+			filter.setIncludes(includes.split(","));
+		}
+		final String excludes = System.getProperty(EXCLUDE_PROPERTY);
+		if (excludes != null) {
+			filter.setExcludes(excludes.split(","));
+		}
+
+		final List<File> roots = new ArrayList<File>();
+		for (final String directory : directories.split(File.pathSeparator)) {
+			roots.add(new File(directory));
+		}
+
+		if (Boolean.getBoolean(RECURSIVE_PROPERTY)) {
+			return filter.walkEarFiles(roots, Integer.getInteger(DIRECTORY_READS_PROPERTY, 4));
+		}
+
+		final long start = System.nanoTime();
+		final List<File> ears = new ArrayList<File>();
+		for (final File root : roots) {
+			ears.addAll(filter.filterEarFiles(root));
+		}
+		completed(metricsListener, Phase.LIST, start);
+		return ears.iterator();
+	}
+
+	/**
+	 * Only this method touches POI, so its classes aren't loaded for other formats.
+	 *
+	 * @param moreSinks
+	 *            also get all EARs, after the report
+	 */
+	private static void writeSpreadsheet(final Iterator<File> ears, final Pipeline pipeline,
+			final MetricsListener metricsListener, final File target, final List<ArchiveSink> moreSinks)
+			throws IOException {
+		final EarJarSpreadsheet spread = new EarJarSpreadsheet();
+		final List<ArchiveSink> sinks = new ArrayList<ArchiveSink>();
+		sinks.add(measured(spread, Phase.INDEX, metricsListener));
+		sinks.addAll(moreSinks);
+		pipeline.run(ears, sinks.toArray(new ArchiveSink[sinks.size()]));
+		final long start = System.nanoTime();
+		final int rowWindow = Integer.getInteger(ROW_WINDOW_PROPERTY, 0);
+		if (rowWindow > 0) {
+			spread.createStreamingWorkbook(target, rowWindow);
+		} else {
+			spread.createWorkbook(target);
+		}
+		completed(metricsListener, Phase.WRITE, start);
+	}
+
+	/**
+	 * @param moreSinks
+	 *            also get all EARs, after the report
+	 */
+	private static void writeTextReport(final Iterator<File> ears, final Pipeline pipeline,
+			final MetricsListener metricsListener, final EarJarTextReport.Format format, final File target,
+			final List<ArchiveSink> moreSinks) throws IOException {
+		final EarJarTextReport report = new EarJarTextReport(format, target);
+		try {
+			final List<ArchiveSink> sinks = new ArrayList<ArchiveSink>();
+			sinks.add(measured(report.getIndexer(), Phase.INDEX, metricsListener));
+			sinks.add(measured(report.getEarWriter(), Phase.WRITE, metricsListener));
+			sinks.addAll(moreSinks);
+			pipeline.run(ears, sinks.toArray(new ArchiveSink[sinks.size()]));
+		} finally {
+			final long start = System.nanoTime();
+			report.close();
+			completed(metricsListener, Phase.WRITE, start);
+		}
+		LOG.info("wrote {}", Arrays.asList(report.getFiles()));
+	}
+
+	private static void logDuplicateClasses(final EntryIndex entryIndex) {
+		LOG.info("entry index: {}", entryIndex);
+		for (final ArchiveFile ear : entryIndex.getEars()) {
+			final Map<String, List<ArchiveFile>> duplicates = entryIndex.getDuplicateClasses(ear);
+			if (duplicates.isEmpty()) {
+				continue;
+			}
+			final StringBuilder examples = new StringBuilder();
+			int logged = 0;
+			for (final Map.Entry<String, List<ArchiveFile>> duplicate : duplicates.entrySet()) {
+				if (logged++ == DUPLICATE_CLASSES_LOGGED) {
+					examples.append(", ...");
+					break;
+				}
+				examples.append(logged == 1 ? "" : ", ").append(duplicate.getKey()).append(" in ")
+						.append(duplicate.getValue());
+			}
+			LOG.warn("{} has {} classes in more than one JAR: {}", new Object[] { ear, duplicates.size(), examples });
+		}
+	}
+
+	private static ArchiveSink measured(final ArchiveSink sink, final Phase phase,
+			final MetricsListener metricsListener) {
+		if (metricsListener == null) {
+			return sink;
+		}
+		return new ArchiveSink() {
+			@Override
+			public void accept(final File file, final ArchiveFile archive) {
+				final long start = System.nanoTime();
+				sink.accept(file, archive);
+				completed(metricsListener, phase, start);
+			}
+		};
+	}
+
+	private static void completed(final MetricsListener metricsListener, final Phase phase, final long start) {
+		if (metricsListener != null) {
+			metricsListener.completed(phase, null, -1, System.nanoTime() - start, 0);
+		}
+	}
+
+	private static EarJarTextReport.Format createTextFormat(final String name) {
+		if ("csv".equals(name)) {
+			return EarJarTextReport.Format.CSV;
+		} else if ("jsonl".equals(name)) {
+			return EarJarTextReport.Format.JSON_LINES;
+		} else {
+			throw new IllegalArgumentException("unknown report format " + name);
+		}
+	}
+
+	private static int maxInflatedSize() {
+		return Integer.getInteger(MAX_INFLATED_SIZE_PROPERTY, CentralDirectory.DEFAULT_MAX_INFLATED_SIZE);
+	}
+
+	private static ArchiveScanner createArchiveScanner(final String name) {
+		if ("truezip".equalsIgnoreCase(name)) {
+			return new TrueZipArchiveScanner(Integer.getInteger(KEPT_MOUNTED_PROPERTY, 0));
+		} else if ("centraldirectory".equalsIgnoreCase(name)) {
+			return new CentralDirectoryScanner(false, maxInflatedSize());
+		} else if ("mapped".equalsIgnoreCase(name)) {
+			return new CentralDirectoryScanner(true, maxInflatedSize());
+		} else {
+			throw new IllegalArgumentException("unknown archive scanner " + name);
+		}
+	}
+
 }
@@ -0,0 +1,205 @@
+package net.e175.klaus.archiveparser.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.e175.klaus.archiveparser.core.ArchiveContent;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.UniqueJarFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ArchiveScanner consulting a ParseCache before letting another scanner open a top-level archive. On a cache hit, the
+ * archive isn't opened at all, the contained archives are replayed from the cache. On a miss, whatever the other
+ * scanner finds is recorded and put into the cache once the top-level archive has been released.
+ * <p>
+ * Archives that were never scanned while recording (like JARs deduplicated by UniqueJarFactory) are replayed as
+ * empty, which is fine as long as only JARs are deduplicated, since those cannot contain archives.
+ * <p>
+ * Where the other scanner's archives implement ArchiveContent, so do the replayed ones, so JARs can still be
+ * recognised by content. Their digests are only available if the cache records them, see
+ * {@link ParseCache#ParseCache(java.io.File, int, boolean, String, boolean)}. Entries are not cached, so this scanner
+ * can't be used to index them.
+ */
+public final class CachingArchiveScanner implements ArchiveScanner {
+
+	/** Archive replayed from the cache. */
+	static class CachedArchive extends File {
+		private static final long serialVersionUID = 1L;
+
+		final transient ParseCache.Node node;
+
+		CachedArchive(final File parent, final ParseCache.Node node) {
+			super(parent, node.name);
+			this.node = node;
+		}
+
+		static CachedArchive of(final File parent, final ParseCache.Node node) {
+			return node.size < 0 ? new CachedArchive(parent, node) : new CachedContent(parent, node);
+		}
+	}
+
+	/** Archive replayed from the cache, along with what the scanner knew about its content. */
+	static final class CachedContent extends CachedArchive implements ArchiveContent {
+		private static final long serialVersionUID = 1L;
+
+		CachedContent(final File parent, final ParseCache.Node node) {
+			super(parent, node);
+		}
+
+		@Override
+		public long getCrc() {
+			return node.crc;
+		}
+
+		@Override
+		public long getSize() {
+			return node.size;
+		}
+
+		@Override
+		public byte[] digest(final String algorithm) throws IOException {
+			if (node.digest == null || !UniqueJarFactory.DIGEST_ALGORITHM.equals(algorithm)) {
+				throw new IOException("no " + algorithm + " digest cached");
+			}
+			return node.digest.clone();
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(CachingArchiveScanner.class);
+
+	private final ArchiveScanner delegate;
+	private final ParseCache cache;
+
+	// guarded by themselves; identity-based as the delegate's files need not implement equals reasonably
+	private final Map<File, ParseCache.Node> recordedTopLevel = new IdentityHashMap<File, ParseCache.Node>();
+	private final Map<File, ParseCache.Node> recordedNested = new IdentityHashMap<File, ParseCache.Node>();
+	private final Map<File, Boolean> replayedTopLevel = new IdentityHashMap<File, Boolean>();
+
+	public CachingArchiveScanner(final ArchiveScanner delegate, final ParseCache cache) {
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+
+	@Override
+	public List<File> findContainedArchives(final File archive) {
+		if (archive instanceof CachedArchive) {
+			return replay(archive, ((CachedArchive) archive).node);
+		}
+
+		ParseCache.Node node;
+		synchronized (recordedNested) {
+			node = recordedNested.remove(archive);
+		}
+
+		if (node == null) {
+			// must be a top-level archive
+			final ParseCache.Node cached = archive.isFile() ? cache.get(archive) : null;
+			if (cached != null) {
+				synchronized (replayedTopLevel) {
+					replayedTopLevel.put(archive, Boolean.TRUE);
+				}
+				return replay(archive, cached);
+			}
+
+			node = new ParseCache.Node(archive.getAbsolutePath());
+			final List<File> found = delegate.findContainedArchives(archive);
+			synchronized (recordedTopLevel) {
+				recordedTopLevel.put(archive, node);
+			}
+			return record(archive, node, found);
+		}
+
+		return record(archive, node, delegate.findContainedArchives(archive));
+	}
+
+	@Override
+	public void release(final File archive) {
+		if (archive instanceof CachedArchive) {
+			return;
+		}
+
+		synchronized (replayedTopLevel) {
+			if (replayedTopLevel.remove(archive) != null) {
+				return;
+			}
+		}
+
+		final ParseCache.Node root;
+		synchronized (recordedTopLevel) {
+			root = recordedTopLevel.remove(archive);
+		}
+		if (root != null) {
+			forget(root);
+			cache.put(archive, root);
+		}
+
+		delegate.release(archive);
+	}
+
+	private List<File> record(final File archive, final ParseCache.Node node, final List<File> found) {
+		final String parentPrefix = archive.getPath() + File.separator;
+		node.children = new ArrayList<ParseCache.Node>(found.size());
+		synchronized (recordedNested) {
+			for (final File f : found) {
+				final String path = f.getPath();
+				final ParseCache.Node child = new ParseCache.Node(path.startsWith(parentPrefix) ? path
+						.substring(parentPrefix.length()) : f.getName());
+				if (f instanceof ArchiveContent) {
+					recordContent(child, (ArchiveContent) f);
+				}
+				child.source = f;
+				node.children.add(child);
+				recordedNested.put(f, child);
+			}
+		}
+		return found;
+	}
+
+	private void recordContent(final ParseCache.Node node, final ArchiveContent content) {
+		node.crc = content.getCrc();
+		node.size = content.getSize();
+		if (cache.recordsDigests()) {
+			try {
+				node.digest = content.digest(UniqueJarFactory.DIGEST_ALGORITHM);
+			} catch (final IOException e) {
+				LOG.warn("cannot compute digest of {}, it will be identified by name: {}", content, e.getMessage());
+			}
+		}
+	}
+
+	/** removes whatever is left of this tree from the recording */
+	private void forget(final ParseCache.Node node) {
+		if (node.children == null) {
+			return;
+		}
+		for (final ParseCache.Node child : node.children) {
+			if (child.source != null) {
+				synchronized (recordedNested) {
+					recordedNested.remove(child.source);
+				}
+				child.source = null;
+			}
+			forget(child);
+		}
+	}
+
+	private static List<File> replay(final File archive, final ParseCache.Node node) {
+		if (node.children == null) {
+			return Collections.emptyList();
+		}
+		final List<File> files = new ArrayList<File>(node.children.size());
+		for (final ParseCache.Node child : node.children) {
+			files.add(CachedArchive.of(archive, child));
+		}
+		return files;
+	}
+
+}
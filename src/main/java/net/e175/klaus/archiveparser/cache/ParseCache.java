@@ -0,0 +1,360 @@
+package net.e175.klaus.archiveparser.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent cache of which archives are contained in which top-level archive, so unchanged archives don't need to be
+ * opened again in later runs. Entries are found by absolute path and validated by file size, modification time and,
+ * optionally, a content digest. With digests, an archive that was moved or copied is also found by its digest.
+ * <p>
+ * For each contained archive, the CRC-32 and size the scanner reported (and optionally a digest) are kept as well, so
+ * JARs can still be recognised by content when they are replayed. As that depends on the scanner, the cache file
+ * records which scanner it was written for and whether digests were kept, and is discarded if either differs.
+ * <p>
+ * The cache is loaded once and written back with {@link #save()}. When saving, entries for files that no longer
+ * exist are dropped, and only the most recently used entries are kept if there are more than the configured maximum.
+ */
+public final class ParseCache {
+
+	/** Cached contents of one archive. */
+	static final class Node {
+		final String name;
+		/** null if the archive was not scanned, e.g. because it was deduplicated */
+		List<Node> children;
+		/** CRC-32 and size of the uncompressed archive if the scanner knew them, otherwise -1 */
+		long crc = -1;
+		long size = -1;
+		/** digest of the uncompressed archive by UniqueJarFactory.DIGEST_ALGORITHM, or null if not recorded */
+		byte[] digest;
+		/** the file this node was recorded from, only set while recording */
+		transient File source;
+
+		Node(final String name) {
+			this.name = name;
+		}
+	}
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final String digest;
+		final Node root;
+		volatile long lastUsed;
+
+		Entry(final long size, final long lastModified, final String digest, final Node root, final long lastUsed) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = digest;
+			this.root = root;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(ParseCache.class);
+
+	private static final int MAGIC = 0x41504331; // "APC1"
+
+	/** increment whenever the file format or the meaning of the cached data changes */
+	static final int FORMAT_VERSION = 3;
+
+	public static final int DEFAULT_MAX_ENTRIES = 20000;
+
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+	private static final String NO_DIGEST = "";
+
+	private final File cacheFile;
+	private final int maxEntries;
+	private final boolean useDigests;
+	private final String scanner;
+	private final boolean recordDigests;
+	private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/** the same entries by digest, if digests are used */
+	private final Map<String, Entry> entriesByDigest = new ConcurrentHashMap<String, Entry>();
+	/** digests computed for archives not found, to be put into the cache once parsed; without a root */
+	private final Map<String, Entry> missedDigests = new ConcurrentHashMap<String, Entry>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a cache backed by the given file, loading its contents if it exists.
+	 * 
+	 * @param useDigests
+	 *            whether to also verify entries by a digest of the archive contents; safer, but needs to read every
+	 *            archive completely
+	 * @param scanner
+	 *            name of the scanner whose results are cached, e.g. as chosen in Report
+	 * @param recordDigests
+	 *            whether to also keep a digest of each contained archive, as needed for JarIdentity.CONTENT_DIGEST,
+	 *            which costs reading each one more time
+	 */
+	public ParseCache(final File cacheFile, final int maxEntries, final boolean useDigests, final String scanner,
+			final boolean recordDigests) {
+		this.cacheFile = cacheFile;
+		this.maxEntries = maxEntries;
+		this.useDigests = useDigests;
+		this.scanner = scanner;
+		this.recordDigests = recordDigests;
+		if (cacheFile.isFile()) {
+			load();
+		}
+	}
+
+	public ParseCache(final File cacheFile, final int maxEntries, final boolean useDigests) {
+		this(cacheFile, maxEntries, useDigests, "", false);
+	}
+
+	public ParseCache(final File cacheFile) {
+		this(cacheFile, DEFAULT_MAX_ENTRIES, false);
+	}
+
+	/** @return whether a digest of each contained archive is to be kept */
+	boolean recordsDigests() {
+		return recordDigests;
+	}
+
+	/** @return cached contents of the archive, or null if unknown or outdated */
+	Node get(final File archive) {
+		final Entry entry = entries.get(archive.getAbsolutePath());
+		final boolean unchanged = entry != null && entry.size == archive.length()
+				&& entry.lastModified == archive.lastModified();
+		if (unchanged && !useDigests) {
+			return hit(entry);
+		}
+
+		if (useDigests) {
+			final String digest = digestOf(archive);
+			if (unchanged && entry.digest.equals(digest)) {
+				return hit(entry);
+			}
+			final Entry sameContent = digest == null ? null : entriesByDigest.get(digest);
+			if (sameContent != null && sameContent.size == archive.length()) {
+				// moved or copied, so remember it under its new path, too
+				put(archive, digest, sameContent.root);
+				return hit(sameContent);
+			}
+			if (digest != null) {
+				// so put doesn't need to read the whole archive again
+				missedDigests.put(archive.getAbsolutePath(), new Entry(archive.length(), archive.lastModified(),
+						digest, null, 0));
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	private Node hit(final Entry entry) {
+		entry.lastUsed = System.currentTimeMillis();
+		hits.incrementAndGet();
+		return entry.root;
+	}
+
+	void put(final File archive, final Node root) {
+		final Entry missed = useDigests ? missedDigests.remove(archive.getAbsolutePath()) : null;
+		final String digest;
+		if (!useDigests) {
+			digest = NO_DIGEST;
+		} else if (missed != null && missed.size == archive.length() && missed.lastModified == archive.lastModified()) {
+			digest = missed.digest;
+		} else {
+			digest = digestOf(archive);
+		}
+		if (digest != null) {
+			put(archive, digest, root);
+		}
+	}
+
+	private void put(final File archive, final String digest, final Node root) {
+		final Entry entry = new Entry(archive.length(), archive.lastModified(), digest, root, System
+				.currentTimeMillis());
+		entries.put(archive.getAbsolutePath(), entry);
+		if (digest.length() > 0) {
+			entriesByDigest.put(digest, entry);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** Writes the cache to its file, evicting entries for deleted files and the least recently used ones. */
+	public void save() throws IOException {
+		final List<Map.Entry<String, Entry>> kept = new ArrayList<Map.Entry<String, Entry>>();
+		for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (new File(entry.getKey()).isFile()) {
+				kept.add(entry);
+			}
+		}
+		Collections.sort(kept, new Comparator<Map.Entry<String, Entry>>() {
+			@Override
+			public int compare(final Map.Entry<String, Entry> o1, final Map.Entry<String, Entry> o2) {
+				final long u1 = o1.getValue().lastUsed;
+				final long u2 = o2.getValue().lastUsed;
+				return u1 > u2 ? -1 : u1 < u2 ? 1 : 0;
+			}
+		});
+		final List<Map.Entry<String, Entry>> written = kept.subList(0, Math.min(kept.size(), maxEntries));
+
+		// write to a temp file first, so an interrupted save doesn't destroy the existing cache
+		final File tempFile = new File(cacheFile.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(scanner);
+			out.writeBoolean(recordDigests);
+			out.writeInt(written.size());
+			for (final Map.Entry<String, Entry> entry : written) {
+				out.writeUTF(entry.getKey());
+				out.writeLong(entry.getValue().size);
+				out.writeLong(entry.getValue().lastModified);
+				out.writeUTF(entry.getValue().digest);
+				out.writeLong(entry.getValue().lastUsed);
+				writeChildren(out, entry.getValue().root);
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!tempFile.renameTo(cacheFile) && !(cacheFile.delete() && tempFile.renameTo(cacheFile))) {
+			throw new IOException("cannot replace cache file " + cacheFile);
+		}
+		LOG.info("wrote {} entries to parse cache {} ({} hits, {} misses)", new Object[] { written.size(), cacheFile,
+				hits.get(), misses.get() });
+	}
+
+	private void load() {
+		try {
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+					LOG.info("parse cache {} has an unknown format, starting from scratch", cacheFile);
+					return;
+				}
+				final String writtenFor = in.readUTF();
+				final boolean withDigests = in.readBoolean();
+				if (!writtenFor.equals(scanner) || withDigests != recordDigests) {
+					LOG.info("parse cache {} was written for scanner \"{}\"{}, starting from scratch", new Object[] {
+							cacheFile, writtenFor, withDigests ? " with digests" : " without digests" });
+					return;
+				}
+				final int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					final String path = in.readUTF();
+					final long size = in.readLong();
+					final long lastModified = in.readLong();
+					final String digest = in.readUTF();
+					final long lastUsed = in.readLong();
+					final Node root = new Node(path);
+					root.children = readChildren(in);
+					final Entry entry = new Entry(size, lastModified, digest, root, lastUsed);
+					entries.put(path, entry);
+					if (digest.length() > 0) {
+						entriesByDigest.put(digest, entry);
+					}
+				}
+			} finally {
+				in.close();
+			}
+			LOG.info("loaded {} entries from parse cache {}", entries.size(), cacheFile);
+		} catch (final IOException e) {
+			LOG.warn("cannot read parse cache {}, starting from scratch: {}", cacheFile, e.getMessage());
+			entries.clear();
+			entriesByDigest.clear();
+		}
+	}
+
+	private static void writeChildren(final DataOutputStream out, final Node node) throws IOException {
+		if (node.children == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(node.children.size());
+		for (final Node child : node.children) {
+			out.writeUTF(child.name);
+			out.writeLong(child.crc);
+			out.writeLong(child.size);
+			if (child.digest == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(child.digest.length);
+				out.write(child.digest);
+			}
+			writeChildren(out, child);
+		}
+	}
+
+	private static List<Node> readChildren(final DataInputStream in) throws IOException {
+		final int count = in.readInt();
+		if (count < 0) {
+			return null;
+		}
+		final List<Node> children = new ArrayList<Node>(count);
+		for (int i = 0; i < count; i++) {
+			final Node child = new Node(in.readUTF());
+			child.crc = in.readLong();
+			child.size = in.readLong();
+			final int digestLength = in.readInt();
+			if (digestLength >= 0) {
+				child.digest = new byte[digestLength];
+				in.readFully(child.digest);
+			}
+			child.children = readChildren(in);
+			children.add(child);
+		}
+		return children;
+	}
+
+	/** @return hex digest of the file contents, or null if it cannot be read */
+	private static String digestOf(final File archive) {
+		try {
+			final MessageDigest digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+			final InputStream in = new FileInputStream(archive);
+			try {
+				final byte[] buffer = new byte[65536];
+				int count;
+				while ((count = in.read(buffer)) >= 0) {
+					digest.update(buffer, 0, count);
+				}
+			} finally {
+				in.close();
+			}
+
+			final StringBuilder hex = new StringBuilder();
+			for (final byte b : digest.digest()) {
+				hex.append(Character.forDigit(b >> 4 & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (final IOException e) {
+			LOG.warn("cannot compute digest of {}: {}", archive, e.getMessage());
+			return null;
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(DIGEST_ALGORITHM + " not available", e);
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+package net.e175.klaus.archiveparser.core;
+
+import java.io.IOException;
+
+/**
+ * What a scanner knows about the content of an archive it found, without extracting it. Files returned by an
+ * ArchiveScanner may implement this so archives can be recognised by content rather than by name.
+ */
+public interface ArchiveContent {
+
+	/** @return CRC-32 of the uncompressed archive */
+	long getCrc();
+
+	/** @return size of the uncompressed archive in bytes */
+	long getSize();
+
+	/**
+	 * @param algorithm
+	 *            a MessageDigest algorithm name, e.g. "SHA-1"
+	 * @return digest of the uncompressed archive
+	 * @throws IllegalArgumentException
+	 *             if the algorithm is not available
+	 */
+	byte[] digest(final String algorithm) throws IOException;
+
+}
@@ -1,63 +1,183 @@
 package net.e175.klaus.archiveparser.core;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 
 import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveIDComparator;
 import net.e175.klaus.archiveparser.id.ArchiveIDProvider;
 import net.e175.klaus.archiveparser.id.ArchiveType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import de.schlichtherle.io.File;
-
 public final class ArchiveFile implements Comparable<ArchiveFile> {
 	static class DefaultFactory implements ArchiveFileFactory {
+		private final ArchiveScanner archiveScanner;
+		private final boolean indexEntries;
+
+		DefaultFactory(final ArchiveScanner archiveScanner, final boolean indexEntries) {
+			this.archiveScanner = archiveScanner;
+			this.indexEntries = indexEntries;
+		}
+
 		@Override
-		public ArchiveFile getInstanceFor(final java.io.File file, final ArchiveIDProvider idProvider) {
-			return new ArchiveFile(file, idProvider, this);
+		public ArchiveFile getInstanceFor(final File file, final ArchiveIDProvider idProvider) {
+			return getInstanceFor(file, idProvider, UNLIMITED_DEPTH);
+		}
+
+		@Override
+		public ArchiveFile getInstanceFor(final File file, final ArchiveIDProvider idProvider, final int maxDepth) {
+			return new ArchiveFile(file, idProvider, this, archiveScanner, maxDepth, false, indexEntries);
 		}
 	}
 
+	/** What a lazy archive needs to parse itself; doubles as lock so parsing doesn't hold the archive's lock. */
+	private static final class Pending {
+		private final File file;
+		private final ArchiveIDProvider idProvider;
+		private final ArchiveFileFactory archiveFileFactory;
+		private final ArchiveScanner archiveScanner;
+		private final int maxDepth;
+		private final boolean indexEntries;
+
+		Pending(final File file, final ArchiveIDProvider idProvider, final ArchiveFileFactory archiveFileFactory,
+				final ArchiveScanner archiveScanner, final int maxDepth, final boolean indexEntries) {
+			this.file = file;
+			this.idProvider = idProvider;
+			this.archiveFileFactory = archiveFileFactory;
+			this.archiveScanner = archiveScanner;
+			this.maxDepth = maxDepth;
+			this.indexEntries = indexEntries;
+		}
+	}
+
+	/** parse archives in archives in archives... */
+	public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
 	private static final Logger LOG = LoggerFactory.getLogger(ArchiveFile.class);
 
 	private ArchiveID archiveId;
+	/** null while frozen */
 	private List<ArchiveFile> containedArchives;
+	/** null while frozen; changes to it must hold the lock on this archive */
 	private List<ArchiveFile> containedInArchives;
+	/** graph holding the lists above while frozen, see ContainmentGraph */
+	private volatile ContainmentGraph graph;
+	private int ordinal;
+	/** set until a lazy archive has been parsed */
+	private volatile Pending pending;
+	/** null unless this is a JAR whose entries were indexed */
+	private EntryNames entries;
 
 	/** ignore WARs (treat them like directories) */
 	public static final boolean TREAT_WARS_AS_FOLDERS = true; // TODO make this
 																// configurable
 
-	public ArchiveFile(final java.io.File file, final ArchiveIDProvider idProvider,
-			final ArchiveFileFactory archiveFileFactory) {
-		initialise(file, idProvider, archiveFileFactory == null ? new DefaultFactory() : archiveFileFactory);
+	/**
+	 * @param archiveScanner
+	 *            how to find contained archives; should be the same one the factory uses
+	 * @param maxDepth
+	 *            number of levels of contained archives to find: 0 doesn't open this archive at all, 1 finds the
+	 *            archives in this one (and in its WARs, which are treated like folders) but doesn't open them, and so
+	 *            on
+	 * @param lazy
+	 *            whether to open this archive only when contains() is first called, rather than right now. Archives
+	 *            contained in it are then parsed along with it, while it is open anyway. Until then, archives it
+	 *            contains don't know they are contained in it.
+	 * @param indexEntries
+	 *            whether to keep the names of the other files in each JAR opened, see getEntries(). Needs an
+	 *            EntryScanner; should be the same the factory uses.
+	 */
+	public ArchiveFile(final File file, final ArchiveIDProvider idProvider,
+			final ArchiveFileFactory archiveFileFactory, final ArchiveScanner archiveScanner, final int maxDepth,
+			final boolean lazy, final boolean indexEntries) {
+		final ArchiveScanner scanner = archiveScanner == null ? new TrueZipArchiveScanner() : archiveScanner;
+		initialise(file, idProvider, archiveFileFactory == null ? new DefaultFactory(scanner, indexEntries)
+				: archiveFileFactory, scanner, maxDepth, lazy, indexEntries);
+	}
+
+	/** like the constructor above, without indexing entries */
+	public ArchiveFile(final File file, final ArchiveIDProvider idProvider,
+			final ArchiveFileFactory archiveFileFactory, final ArchiveScanner archiveScanner, final int maxDepth,
+			final boolean lazy) {
+		this(file, idProvider, archiveFileFactory, archiveScanner, maxDepth, lazy, false);
 	}
 
-	public ArchiveFile(final java.io.File file, final ArchiveIDProvider idProvider) {
-		final ArchiveFileFactory archiveFileFactory = new DefaultFactory();
-		initialise(file, idProvider, archiveFileFactory);
+	/**
+	 * @param archiveScanner
+	 *            how to find contained archives; should be the same one the factory uses
+	 */
+	public ArchiveFile(final File file, final ArchiveIDProvider idProvider,
+			final ArchiveFileFactory archiveFileFactory, final ArchiveScanner archiveScanner) {
+		this(file, idProvider, archiveFileFactory, archiveScanner, UNLIMITED_DEPTH, false);
 	}
 
-	private void initialise(final java.io.File file, final ArchiveIDProvider idProvider,
+	public ArchiveFile(final File file, final ArchiveIDProvider idProvider,
 			final ArchiveFileFactory archiveFileFactory) {
-		final File thisFile = new File(file);
-		containedArchives = new LinkedList<ArchiveFile>();
-		containedInArchives = new LinkedList<ArchiveFile>();
-		archiveId = createArchiveID(thisFile, idProvider);
+		this(file, idProvider, archiveFileFactory, null);
+	}
+
+	public ArchiveFile(final File file, final ArchiveIDProvider idProvider) {
+		this(file, idProvider, null, null);
+	}
 
-		parse(thisFile, idProvider, archiveFileFactory);
-		Collections.sort(containedArchives);
+	/** an archive restored by ContainmentGraph, which freezes it right away */
+	ArchiveFile(final ArchiveID archiveId) {
+		this.archiveId = archiveId;
+	}
+
+	private void initialise(final File file, final ArchiveIDProvider idProvider,
+			final ArchiveFileFactory archiveFileFactory, final ArchiveScanner archiveScanner, final int maxDepth,
+			final boolean lazy, final boolean indexEntries) {
+		containedArchives = new ArrayList<ArchiveFile>();
+		containedInArchives = new ArrayList<ArchiveFile>(1);
+		archiveId = createArchiveID(file, idProvider);
+
+		if (lazy) {
+			pending = new Pending(file, idProvider, archiveFileFactory, archiveScanner, maxDepth, indexEntries);
+		} else {
+			parse(file, idProvider, archiveFileFactory, archiveScanner, maxDepth, indexEntries);
+		}
+	}
+
+	/** parses a lazy archive, if that hasn't happened yet */
+	private void parsePending() {
+		final Pending p = pending;
+		if (p != null) {
+			synchronized (p) {
+				if (pending != null) {
+					parse(p.file, p.idProvider, p.archiveFileFactory, p.archiveScanner, p.maxDepth,
+							p.indexEntries);
+					pending = null;
+				}
+			}
+		}
 	}
 
 	private void parse(final File thisFile, final ArchiveIDProvider idProvider,
-			final ArchiveFileFactory archiveFileFactory) {
-		if (thisFile.exists() && thisFile.canRead()) {
-			final List<File> containedArchiveFiles = getAllArchivesInAllSubfoldersButNotInArchives(thisFile,
-					new LinkedList<File>());
+			final ArchiveFileFactory archiveFileFactory, final ArchiveScanner archiveScanner, final int maxDepth,
+			final boolean indexEntries) {
+		if (maxDepth > 0) {
+			findContainedArchives(thisFile, idProvider, archiveFileFactory, archiveScanner, maxDepth, indexEntries);
+			Collections.sort(containedArchives);
+		}
+	}
 
+	private void findContainedArchives(final File thisFile, final ArchiveIDProvider idProvider,
+			final ArchiveFileFactory archiveFileFactory, final ArchiveScanner archiveScanner, final int maxDepth,
+			final boolean indexEntries) {
+		final List<String> entryNames = indexEntries && archiveScanner instanceof EntryScanner && archiveId != null
+				&& ArchiveType.JAR.equals(archiveId.getType()) ? new ArrayList<String>() : null;
+		final List<File> containedArchiveFiles = entryNames == null ? archiveScanner.findContainedArchives(thisFile)
+				: ((EntryScanner) archiveScanner).findContainedArchives(thisFile, entryNames);
+		if (entryNames != null) {
+			entries = EntryNames.of(entryNames);
+		}
+		try {
 			if (containedArchiveFiles.size() > 0 && !getArchiveID().getType().canContainArchives()) {
 				LOG.warn(
 						"Archive {} cannot contain archives according to type, but contained archives were found. Ignoring them.",
@@ -66,7 +186,8 @@ public final class ArchiveFile implements Comparable<ArchiveFile> {
 			}
 
 			for (final File archiveFile : containedArchiveFiles) {
-				final ArchiveFile contained = archiveFileFactory.getInstanceFor(archiveFile, idProvider);
+				final ArchiveFile contained = archiveFileFactory.getInstanceFor(archiveFile, idProvider,
+						depthOf(archiveFile, idProvider, maxDepth));
 
 				if (contained.getArchiveID().getName() == null) {
 					LOG.warn("Ignoring unknown archive {} ({})", contained, archiveFile);
@@ -85,52 +206,125 @@ public final class ArchiveFile implements Comparable<ArchiveFile> {
 					containedArchives.add(contained);
 				}
 			}
-		} else {
-			throw new IllegalArgumentException("file does not exist or is not readable: " + thisFile);
+		} finally {
+			archiveScanner.release(thisFile);
 		}
 	}
 
+	/** @return maxDepth for an archive found in one parsed with the given maxDepth */
+	private static int depthOf(final File containedFile, final ArchiveIDProvider idProvider, final int maxDepth) {
+		if (maxDepth == UNLIMITED_DEPTH) {
+			return UNLIMITED_DEPTH;
+		}
+		// WARs are folders, so the archives in them are on the same level as those next to them
+		final boolean isFolder = TREAT_WARS_AS_FOLDERS
+				&& idProvider.idForFile(containedFile).getType().equals(ArchiveType.WAR);
+		return isFolder ? maxDepth : maxDepth - 1;
+	}
+
 	private void updatedContainedInListFor(final ArchiveFile contained) {
 		if (contained.archiveId.getType().canBeContainedInArchives()) {
-			contained.containedInArchives.add(this);
+			// shared instances may be updated by several parsing threads at once
+			synchronized (contained) {
+				contained.thaw();
+				contained.containedInArchives.add(this);
+			}
 		} else {
 			throw new IllegalStateException("Archive " + contained + " is contained in " + this
 					+ ", but cannot be according to its type");
 		}
 	}
 
-	private ArchiveID createArchiveID(final File thisFile, final ArchiveIDProvider idProvider) {
-		if (idProvider != null) {
-			return idProvider.idForFile(thisFile);
-		} else {
-			return null;
+	/**
+	 * Removes this archive (and any WARs it was flattened from) from the containedIn lists of the archives it
+	 * contains. Use this when an archive is dropped from an analysis, while the archives it contains may still be
+	 * shared with others.
+	 */
+	public void detach() {
+		if (pending != null) {
+			// nobody knows about it yet
+			return;
+		}
+		for (final ArchiveFile contained : contains()) {
+			synchronized (contained) {
+				contained.thaw();
+				for (final Iterator<ArchiveFile> it = contained.containedInArchives.iterator(); it.hasNext();) {
+					final ArchiveFile container = it.next();
+					if (container == this || container.isDirectlyContainedIn(this)) {
+						it.remove();
+					}
+				}
+			}
 		}
 	}
 
-	private List<File> getAllArchivesInAllSubfoldersButNotInArchives(final File root, final List<File> collectedFiles) {
-		final File archive = new File(root);
-
-		final java.io.File[] files = archive.listFiles();
-		if (files != null) {
-			for (final java.io.File onefile : files) {
-				final File f = new File(onefile);
-				if (f.isArchive()) {
-					collectedFiles.add(f);
-				} else if (f.isDirectory()) {
-					collectedFiles.addAll(getAllArchivesInAllSubfoldersButNotInArchives(f, new LinkedList<File>()));
+	private boolean isDirectlyContainedIn(final ArchiveFile container) {
+		synchronized (this) {
+			for (final ArchiveFile candidate : containedIn()) {
+				if (candidate == container) {
+					return true;
 				}
 			}
 		}
+		return false;
+	}
+
+	/** replaces this archive's lists by views on the graph */
+	void freeze(final ContainmentGraph frozenGraph, final int frozenOrdinal) {
+		synchronized (this) {
+			ordinal = frozenOrdinal;
+			graph = frozenGraph;
+			containedArchives = null;
+			containedInArchives = null;
+		}
+	}
+
+	/** @return whether contains() and containedIn() are views on a ContainmentGraph */
+	public boolean isFrozen() {
+		return graph != null;
+	}
+
+	int ordinalIn(final ContainmentGraph someGraph) {
+		return graph == someGraph ? ordinal : -1;
+	}
+
+	/** gives this archive lists of its own again, if it is frozen; must hold the lock on this */
+	private void thaw() {
+		final ContainmentGraph frozenGraph = graph;
+		if (frozenGraph != null) {
+			containedArchives = new ArrayList<ArchiveFile>(frozenGraph.contains(ordinal));
+			containedInArchives = new ArrayList<ArchiveFile>(frozenGraph.containedIn(ordinal));
+			graph = null;
+		}
+	}
 
-		return collectedFiles;
+	private ArchiveID createArchiveID(final File thisFile, final ArchiveIDProvider idProvider) {
+		if (idProvider != null) {
+			return idProvider.idForFile(thisFile);
+		} else {
+			return null;
+		}
 	}
 
 	public List<ArchiveFile> contains() {
-		return Collections.unmodifiableList(containedArchives);
+		parsePending();
+		final ContainmentGraph frozenGraph = graph;
+		return frozenGraph != null ? frozenGraph.contains(ordinal) : Collections.unmodifiableList(containedArchives);
+	}
+
+	/**
+	 * @return names of the files in this JAR that are not archives, if it was parsed indexing entries with an
+	 *         EntryScanner, otherwise null
+	 */
+	public EntryNames getEntries() {
+		parsePending();
+		return entries;
 	}
 
 	public List<ArchiveFile> containedIn() {
-		return Collections.unmodifiableList(containedInArchives);
+		final ContainmentGraph frozenGraph = graph;
+		return frozenGraph != null ? frozenGraph.containedIn(ordinal) : Collections
+				.unmodifiableList(containedInArchives);
 	}
 
 	@Override
@@ -145,7 +339,7 @@ public final class ArchiveFile implements Comparable<ArchiveFile> {
 	@Override
 	public int compareTo(final ArchiveFile o) {
 		assert o != null;
-		return toString().compareTo(o.toString());
+		return ArchiveIDComparator.INSTANCE.compare(archiveId, o.archiveId);
 	}
 
 	public boolean equalsExceptVersion(final ArchiveFile other) {
@@ -160,7 +354,7 @@ public final class ArchiveFile implements Comparable<ArchiveFile> {
 	public boolean equals(final Object obj) {
 		if (obj instanceof ArchiveFile) {
 			final ArchiveFile other = (ArchiveFile) obj;
-			return compareTo(other) == 0;
+			return archiveId.equals(other.archiveId);
 		} else {
 			return false;
 		}
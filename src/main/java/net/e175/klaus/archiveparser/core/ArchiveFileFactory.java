@@ -8,4 +8,10 @@ public interface ArchiveFileFactory {
 
 	ArchiveFile getInstanceFor(final File file, final ArchiveIDProvider idProvider);
 
+	/**
+	 * @param maxDepth
+	 *            see {@link ArchiveFile#ArchiveFile(File, ArchiveIDProvider, ArchiveFileFactory, ArchiveScanner, int, boolean)}
+	 */
+	ArchiveFile getInstanceFor(final File file, final ArchiveIDProvider idProvider, final int maxDepth);
+
 }
@@ -0,0 +1,25 @@
+package net.e175.klaus.archiveparser.core;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Strategy to find the archives contained in an archive. The files returned may be virtual, i.e. only meaningful to
+ * the scanner that created them.
+ */
+public interface ArchiveScanner {
+
+	/**
+	 * @return all archives in the given archive or any of its folders, but not those inside contained archives
+	 * @throws IllegalArgumentException
+	 *             if the file does not exist or is not readable
+	 */
+	List<File> findContainedArchives(final File archive);
+
+	/**
+	 * Called exactly once after each successful call to findContainedArchives, when the archive and all archives
+	 * found in it have been processed, so any resources held for it can be released.
+	 */
+	void release(final File archive);
+
+}
@@ -0,0 +1,303 @@
+package net.e175.klaus.archiveparser.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import net.e175.klaus.archiveparser.zip.CentralDirectory;
+import net.e175.klaus.archiveparser.zip.FileZipSource;
+import net.e175.klaus.archiveparser.zip.MappedZipSource;
+import net.e175.klaus.archiveparser.zip.ZipEntryInfo;
+import net.e175.klaus.archiveparser.zip.ZipSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ArchiveScanner that only reads ZIP central directories. Nested archives are read from within their parent: STORED
+ * ones in place, DEFLATED ones are inflated into memory. Only those too large for that are extracted to disk.
+ * <p>
+ * Optionally, top-level archives are memory-mapped instead of read with positional file reads. This saves most system
+ * calls, in particular for STORED nested archives, which are then read straight from the mapping.
+ * <p>
+ * Folders within archives whose names look like archives (exploded archives) are treated like any other folder.
+ */
+public final class CentralDirectoryScanner implements EntryScanner {
+
+	/** Archive inside another archive, only known to this scanner. */
+	static final class NestedArchive extends File implements ArchiveContent {
+		private static final long serialVersionUID = 1L;
+		private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
+		private final transient ZipSource parent;
+		private final transient ZipEntryInfo entry;
+		private final transient int maxInflatedSize;
+		private final transient File tempDirectory;
+		/** contents while this archive is being scanned, closed when it is released */
+		private transient ZipSource content;
+
+		NestedArchive(final File parentFile, final ZipSource parent, final ZipEntryInfo entry,
+				final int maxInflatedSize, final File tempDirectory) {
+			super(parentFile, entry.getName());
+			this.parent = parent;
+			this.entry = entry;
+			this.maxInflatedSize = maxInflatedSize;
+			this.tempDirectory = tempDirectory;
+		}
+
+		ZipSource open() throws IOException {
+			content = CentralDirectory.openEntry(parent, entry, maxInflatedSize, tempDirectory);
+			return content;
+		}
+
+		void close() {
+			if (content != null) {
+				try {
+					content.close();
+				} catch (final IOException e) {
+					LOG.warn("failed to close contents of {}: {}", this, e.getMessage());
+				}
+				content = null;
+			}
+		}
+
+		ZipEntryInfo getEntry() {
+			return entry;
+		}
+
+		@Override
+		public long getCrc() {
+			return entry.getCrc();
+		}
+
+		@Override
+		public long getSize() {
+			return entry.getSize();
+		}
+
+		/** only valid while the parent archive is being scanned */
+		@Override
+		public byte[] digest(final String algorithm) throws IOException {
+			final MessageDigest digest;
+			try {
+				digest = MessageDigest.getInstance(algorithm);
+			} catch (final NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException("unknown digest algorithm " + algorithm, e);
+			}
+
+			final ZipSource content = CentralDirectory.openEntry(parent, entry, maxInflatedSize, tempDirectory);
+			try {
+				final byte[] buffer = new byte[(int) Math.min(DIGEST_BUFFER_SIZE, content.length())];
+				for (long position = 0; position < content.length(); position += buffer.length) {
+					final int count = (int) Math.min(buffer.length, content.length() - position);
+					content.read(position, buffer, 0, count);
+					digest.update(buffer, 0, count);
+				}
+			} finally {
+				content.close();
+			}
+			return digest.digest();
+		}
+	}
+
+	private static final class OpenFile {
+		private final ZipSource source;
+		private int users = 1;
+
+		OpenFile(final ZipSource source) {
+			this.source = source;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(CentralDirectoryScanner.class);
+
+	/** same as TrueZIP recognises by default */
+	private static final String[] ARCHIVE_SUFFIXES = { ".ear", ".jar", ".war", ".zip" };
+
+	private final Map<File, OpenFile> openFiles = new HashMap<File, OpenFile>();
+
+	private final boolean memoryMapped;
+
+	private final int maxInflatedSize;
+
+	private final File tempDirectory;
+
+	public CentralDirectoryScanner() {
+		this(false);
+	}
+
+	/**
+	 * @param memoryMapped
+	 *            whether to memory-map top-level archives
+	 */
+	public CentralDirectoryScanner(final boolean memoryMapped) {
+		this(memoryMapped, CentralDirectory.DEFAULT_MAX_INFLATED_SIZE);
+	}
+
+	/**
+	 * @param maxInflatedSize
+	 *            largest DEFLATED nested archive to inflate into memory; larger ones are inflated into temp files.
+	 *            Each thread scanning archives may hold one per level of nesting.
+	 */
+	public CentralDirectoryScanner(final boolean memoryMapped, final int maxInflatedSize) {
+		this(memoryMapped, maxInflatedSize, null);
+	}
+
+	/**
+	 * @param tempDirectory
+	 *            where to inflate nested archives larger than maxInflatedSize, or null for the default temp directory
+	 */
+	public CentralDirectoryScanner(final boolean memoryMapped, final int maxInflatedSize, final File tempDirectory) {
+		if (maxInflatedSize < 0) {
+			throw new IllegalArgumentException("maxInflatedSize must not be negative, but is " + maxInflatedSize);
+		}
+		this.memoryMapped = memoryMapped;
+		this.maxInflatedSize = maxInflatedSize;
+		this.tempDirectory = tempDirectory;
+	}
+
+	@Override
+	public List<File> findContainedArchives(final File archive) {
+		return findContainedArchives(archive, null);
+	}
+
+	@Override
+	public List<File> findContainedArchives(final File archive, final Collection<String> entryNames) {
+		if (archive instanceof NestedArchive) {
+			final NestedArchive nested = (NestedArchive) archive;
+			try {
+				return archivesIn(nested, nested.open(), entryNames);
+			} catch (final IOException e) {
+				LOG.warn("cannot read nested archive {}, ignoring its contents: {}", archive, e.getMessage());
+				nested.close();
+				return Collections.emptyList();
+			}
+		}
+
+		if (!archive.exists() || !archive.canRead()) {
+			throw new IllegalArgumentException("file does not exist or is not readable: " + archive);
+		}
+
+		if (archive.isDirectory()) {
+			return archivesInDirectory(archive, new ArrayList<File>());
+		} else if (!isArchiveName(archive.getName())) {
+			return Collections.emptyList();
+		}
+
+		final ZipSource source;
+		try {
+			source = open(archive);
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("file is not readable: " + archive, e);
+		}
+
+		try {
+			return archivesIn(archive, source, entryNames);
+		} catch (final IOException e) {
+			LOG.debug("{} is not a readable archive: {}", archive, e.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	@Override
+	public void release(final File archive) {
+		if (archive instanceof NestedArchive) {
+			((NestedArchive) archive).close();
+			return;
+		}
+
+		final OpenFile openFile;
+		synchronized (openFiles) {
+			openFile = openFiles.get(archive);
+			if (openFile == null || --openFile.users > 0) {
+				return;
+			}
+			openFiles.remove(archive);
+		}
+
+		try {
+			openFile.source.close();
+		} catch (final IOException e) {
+			LOG.warn("failed to close {}: {}", archive, e.getMessage());
+		}
+	}
+
+	private ZipSource open(final File archive) throws IOException {
+		synchronized (openFiles) {
+			final OpenFile openFile = openFiles.get(archive);
+			if (openFile != null) {
+				// somebody else is already scanning the same file
+				openFile.users++;
+				return openFile.source;
+			}
+		}
+
+		// not while holding the lock, mapping a large file takes a while
+		final ZipSource source = memoryMapped ? new MappedZipSource(archive) : new FileZipSource(archive);
+		final ZipSource shared;
+		synchronized (openFiles) {
+			final OpenFile openFile = openFiles.get(archive);
+			if (openFile == null) {
+				openFiles.put(archive, new OpenFile(source));
+				return source;
+			}
+			openFile.users++;
+			shared = openFile.source;
+		}
+		// somebody else opened it meanwhile
+		source.close();
+		return shared;
+	}
+
+	/**
+	 * @param entryNames
+	 *            gets the names of the other files, or null
+	 */
+	private List<File> archivesIn(final File archive, final ZipSource source, final Collection<String> entryNames)
+			throws IOException {
+		final List<File> archives = new ArrayList<File>();
+		for (final ZipEntryInfo entry : CentralDirectory.read(source)) {
+			if (entry.isDirectory()) {
+				continue;
+			} else if (isArchiveName(entry.getName())) {
+				archives.add(new NestedArchive(archive, source, entry, maxInflatedSize, tempDirectory));
+			} else if (entryNames != null) {
+				entryNames.add(entry.getName());
+			}
+		}
+		return archives;
+	}
+
+	private List<File> archivesInDirectory(final File directory, final List<File> collectedFiles) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File f : files) {
+				if (f.isDirectory()) {
+					archivesInDirectory(f, collectedFiles);
+				} else if (isArchiveName(f.getName())) {
+					collectedFiles.add(f);
+				}
+			}
+		}
+		return collectedFiles;
+	}
+
+	static boolean isArchiveName(final String name) {
+		final String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+		for (final String suffix : ARCHIVE_SUFFIXES) {
+			if (lowerCaseName.endsWith(suffix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,207 @@
+package net.e175.klaus.archiveparser.core;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import net.e175.klaus.archiveparser.id.ArchiveID;
+
+/**
+ * Immutable, compact form of the containment relations between parsed archives. Each archive gets an ordinal, and the
+ * archives it contains and is contained in are stored as ordinals in two shared int arrays (compressed sparse rows),
+ * instead of two lists per archive.
+ * <p>
+ * Once frozen, {@link ArchiveFile#contains()} and {@link ArchiveFile#containedIn()} are views on the graph. An archive
+ * that is changed later on (e.g. by an incremental update) goes back to lists of its own.
+ */
+public final class ContainmentGraph {
+
+	private final ArchiveFile[] archives;
+	private final int[] containsOffsets;
+	private final int[] containsOrdinals;
+	private final int[] containedInOffsets;
+	private final int[] containedInOrdinals;
+
+	private final class Slice extends AbstractList<ArchiveFile> implements RandomAccess {
+		private final int[] ordinals;
+		private final int from;
+		private final int to;
+
+		Slice(final int[] ordinals, final int from, final int to) {
+			this.ordinals = ordinals;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public ArchiveFile get(final int index) {
+			if (index < 0 || index >= to - from) {
+				throw new IndexOutOfBoundsException("index " + index + ", size " + (to - from));
+			}
+			return archives[ordinals[from + index]];
+		}
+
+		@Override
+		public int size() {
+			return to - from;
+		}
+	}
+
+	private ContainmentGraph(final ArchiveFile[] archives, final int[] containsOffsets, final int[] containsOrdinals,
+			final int[] containedInOffsets, final int[] containedInOrdinals) {
+		this.archives = archives;
+		this.containsOffsets = containsOffsets;
+		this.containsOrdinals = containsOrdinals;
+		this.containedInOffsets = containedInOffsets;
+		this.containedInOrdinals = containedInOrdinals;
+	}
+
+	private ContainmentGraph(final List<ArchiveFile> nodes, final Map<ArchiveFile, Integer> ordinals) {
+		archives = nodes.toArray(new ArchiveFile[nodes.size()]);
+		containsOffsets = new int[archives.length + 1];
+		containedInOffsets = new int[archives.length + 1];
+
+		for (int i = 0; i < archives.length; i++) {
+			containsOffsets[i + 1] = containsOffsets[i] + archives[i].contains().size();
+			containedInOffsets[i + 1] = containedInOffsets[i] + archives[i].containedIn().size();
+		}
+
+		containsOrdinals = new int[containsOffsets[archives.length]];
+		containedInOrdinals = new int[containedInOffsets[archives.length]];
+		for (int i = 0; i < archives.length; i++) {
+			copyOrdinals(archives[i].contains(), ordinals, containsOrdinals, containsOffsets[i]);
+			copyOrdinals(archives[i].containedIn(), ordinals, containedInOrdinals, containedInOffsets[i]);
+		}
+	}
+
+	private static void copyOrdinals(final List<ArchiveFile> from, final Map<ArchiveFile, Integer> ordinals,
+			final int[] to, final int offset) {
+		int i = offset;
+		for (final ArchiveFile archive : from) {
+			to[i++] = ordinals.get(archive).intValue();
+		}
+	}
+
+	/**
+	 * Freezes the archives and all archives reachable from them. This must only be done once parsing has finished,
+	 * and the archives must not be changed concurrently.
+	 * 
+	 * @return the frozen graph
+	 */
+	public static ContainmentGraph freeze(final Collection<ArchiveFile> roots) {
+		final Map<ArchiveFile, Integer> ordinals = new IdentityHashMap<ArchiveFile, Integer>();
+		final List<ArchiveFile> nodes = new ArrayList<ArchiveFile>();
+		for (final ArchiveFile root : roots) {
+			add(root, ordinals, nodes);
+		}
+		// WARs aren't in contains() of the EARs they were flattened into, but in containedIn() of their JARs
+		for (int i = 0; i < nodes.size(); i++) {
+			for (final ArchiveFile contained : nodes.get(i).contains()) {
+				add(contained, ordinals, nodes);
+			}
+			for (final ArchiveFile container : nodes.get(i).containedIn()) {
+				add(container, ordinals, nodes);
+			}
+		}
+
+		final ContainmentGraph graph = new ContainmentGraph(nodes, ordinals);
+		for (int i = 0; i < graph.archives.length; i++) {
+			graph.archives[i].freeze(graph, i);
+		}
+		return graph;
+	}
+
+	/**
+	 * Recreates a graph, e.g. one that was stored by a snapshot. The relations are given as by
+	 * {@link #containsOrdinals(int)} and {@link #containedInOrdinals(int)}, with the ones for ordinal i starting at
+	 * offsets[i] and ending before offsets[i + 1].
+	 * 
+	 * @return graph of new, frozen archives with the given IDs
+	 * @throws IllegalArgumentException
+	 *             if offsets or ordinals are out of range
+	 */
+	public static ContainmentGraph restore(final ArchiveID[] ids, final int[] containsOffsets,
+			final int[] containsOrdinals, final int[] containedInOffsets, final int[] containedInOrdinals) {
+		checkRelations(ids.length, containsOffsets, containsOrdinals);
+		checkRelations(ids.length, containedInOffsets, containedInOrdinals);
+
+		final ArchiveFile[] archives = new ArchiveFile[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			archives[i] = new ArchiveFile(ids[i]);
+		}
+		final ContainmentGraph graph = new ContainmentGraph(archives, containsOffsets, containsOrdinals,
+				containedInOffsets, containedInOrdinals);
+		for (int i = 0; i < archives.length; i++) {
+			archives[i].freeze(graph, i);
+		}
+		return graph;
+	}
+
+	private static void checkRelations(final int size, final int[] offsets, final int[] ordinals) {
+		if (offsets.length != size + 1 || offsets[0] != 0 || offsets[size] != ordinals.length) {
+			throw new IllegalArgumentException("offsets don't match " + size + " archives with " + ordinals.length
+					+ " relations");
+		}
+		for (int i = 0; i < size; i++) {
+			if (offsets[i] > offsets[i + 1]) {
+				throw new IllegalArgumentException("offsets decrease at ordinal " + i);
+			}
+		}
+		for (final int ordinal : ordinals) {
+			if (ordinal < 0 || ordinal >= size) {
+				throw new IllegalArgumentException("ordinal " + ordinal + " out of range");
+			}
+		}
+	}
+
+	private static void add(final ArchiveFile archive, final Map<ArchiveFile, Integer> ordinals,
+			final List<ArchiveFile> nodes) {
+		if (!ordinals.containsKey(archive)) {
+			ordinals.put(archive, Integer.valueOf(nodes.size()));
+			nodes.add(archive);
+		}
+	}
+
+	/** @return number of archives in the graph */
+	public int size() {
+		return archives.length;
+	}
+
+	/** @return number of containment relations in the graph */
+	public int edgeCount() {
+		return containsOrdinals.length + containedInOrdinals.length;
+	}
+
+	/** @return archive with the given ordinal */
+	public ArchiveFile get(final int ordinal) {
+		return archives[ordinal];
+	}
+
+	/** @return ordinal of the archive in this graph, or -1 if it isn't frozen in this graph */
+	public int ordinalOf(final ArchiveFile archive) {
+		return archive.ordinalIn(this);
+	}
+
+	/** @return ordinals of the archives contained in the archive with the given ordinal */
+	public int[] containsOrdinals(final int ordinal) {
+		return Arrays.copyOfRange(containsOrdinals, containsOffsets[ordinal], containsOffsets[ordinal + 1]);
+	}
+
+	/** @return ordinals of the archives containing the archive with the given ordinal */
+	public int[] containedInOrdinals(final int ordinal) {
+		return Arrays.copyOfRange(containedInOrdinals, containedInOffsets[ordinal], containedInOffsets[ordinal + 1]);
+	}
+
+	List<ArchiveFile> contains(final int ordinal) {
+		return new Slice(containsOrdinals, containsOffsets[ordinal], containsOffsets[ordinal + 1]);
+	}
+
+	List<ArchiveFile> containedIn(final int ordinal) {
+		return new Slice(containedInOrdinals, containedInOffsets[ordinal], containedInOffsets[ordinal + 1]);
+	}
+}
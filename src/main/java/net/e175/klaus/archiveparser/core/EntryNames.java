@@ -0,0 +1,287 @@
+package net.e175.klaus.archiveparser.core;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Sorted set of the names of the files in an archive, stored in a single byte array: each name as the number of
+ * leading bytes it shares with the one before, followed by the rest in UTF-8. Classes in the same package share most
+ * of their name, so this takes a fraction of the memory of the strings. Every few names one is stored in full, so
+ * lookups are a binary search over those followed by a short scan. Immutable, so it can be shared by all archives
+ * containing the same JAR.
+ */
+public final class EntryNames implements Iterable<String> {
+
+	/** Appends names in ORDER, skipping duplicates. */
+	public static final class Builder {
+		private byte[] data = new byte[256];
+		private int length;
+		private int[] restarts = new int[4];
+		private int size;
+		private byte[] previous = new byte[0];
+
+		/**
+		 * @throws IllegalArgumentException
+		 *             if the name comes before the one added last
+		 */
+		public Builder add(final String name) {
+			final byte[] bytes = name.getBytes(UTF8);
+			final int comparison = compare(bytes, bytes.length, previous, previous.length);
+			if (size > 0 && comparison <= 0) {
+				if (comparison == 0) {
+					return this;
+				}
+				throw new IllegalArgumentException("names must be added in order, but " + name + " came after "
+						+ new String(previous, UTF8));
+			}
+
+			int shared = 0;
+			if (size % RESTART_INTERVAL == 0) {
+				if (size / RESTART_INTERVAL == restarts.length) {
+					restarts = Arrays.copyOf(restarts, 2 * restarts.length);
+				}
+				restarts[size / RESTART_INTERVAL] = length;
+			} else {
+				final int max = Math.min(bytes.length, previous.length);
+				while (shared < max && bytes[shared] == previous[shared]) {
+					shared++;
+				}
+			}
+			ensureCapacity(10 + bytes.length - shared);
+			writeVarInt(shared);
+			writeVarInt(bytes.length - shared);
+			System.arraycopy(bytes, shared, data, length, bytes.length - shared);
+			length += bytes.length - shared;
+
+			previous = bytes;
+			size++;
+			return this;
+		}
+
+		public EntryNames build() {
+			if (size == 0) {
+				return EMPTY;
+			}
+			return new EntryNames(Arrays.copyOf(data, length),
+					Arrays.copyOf(restarts, (size + RESTART_INTERVAL - 1) / RESTART_INTERVAL), size);
+		}
+
+		private void ensureCapacity(final int additional) {
+			if (length + additional > data.length) {
+				data = Arrays.copyOf(data, Math.max(2 * data.length, length + additional));
+			}
+		}
+
+		private void writeVarInt(final int value) {
+			int v = value;
+			while (v >= 0x80) {
+				data[length++] = (byte) (v | 0x80);
+				v >>>= 7;
+			}
+			data[length++] = (byte) v;
+		}
+	}
+
+	/** Reads the names one after the other, starting at some restart point. */
+	private final class Cursor {
+		private int offset;
+		private byte[] name = new byte[64];
+		private int nameLength;
+
+		Cursor(final int restart) {
+			offset = restarts[restart];
+		}
+
+		void next() {
+			final int shared = readVarInt();
+			final int rest = readVarInt();
+			if (shared + rest > name.length) {
+				name = Arrays.copyOf(name, Math.max(2 * name.length, shared + rest));
+			}
+			System.arraycopy(data, offset, name, shared, rest);
+			offset += rest;
+			nameLength = shared + rest;
+		}
+
+		private int readVarInt() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				final byte b = data[offset++];
+				value |= (b & 0x7f) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		String name() {
+			return new String(name, 0, nameLength, UTF8);
+		}
+	}
+
+	/**
+	 * Order of the names: by Unicode code points, which is the order of their UTF-8 bytes and, unlike String's
+	 * natural order, also right for characters outside the BMP.
+	 */
+	public static final Comparator<String> ORDER = new Comparator<String>() {
+		@Override
+		public int compare(final String o1, final String o2) {
+			final int length = Math.min(o1.length(), o2.length());
+			for (int i = 0; i < length; i++) {
+				final char c1 = o1.charAt(i);
+				final char c2 = o2.charAt(i);
+				if (c1 != c2) {
+					// surrogates encode code points above all other chars
+					final boolean surrogate1 = Character.isSurrogate(c1);
+					if (surrogate1 != Character.isSurrogate(c2)) {
+						return surrogate1 ? 1 : -1;
+					}
+					return c1 - c2;
+				}
+			}
+			return o1.length() - o2.length();
+		}
+	};
+
+	public static final EntryNames EMPTY = new EntryNames(new byte[0], new int[0], 0);
+
+	/** every this many names, one is stored in full */
+	private static final int RESTART_INTERVAL = 16;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final byte[] data;
+	/** offsets of the names stored in full */
+	private final int[] restarts;
+	private final int size;
+
+	private EntryNames(final byte[] data, final int[] restarts, final int size) {
+		this.data = data;
+		this.restarts = restarts;
+		this.size = size;
+	}
+
+	/** @return the names in ORDER, without duplicates */
+	public static EntryNames of(final Collection<String> names) {
+		final List<String> sorted = new ArrayList<String>(names);
+		Collections.sort(sorted, ORDER);
+		final Builder builder = new Builder();
+		for (final String name : sorted) {
+			builder.add(name);
+		}
+		return builder.build();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(final String name) {
+		return indexOf(name) >= 0;
+	}
+
+	/** @return position of the name in ORDER, or -1 if it is not contained */
+	public int indexOf(final String name) {
+		if (size == 0) {
+			return -1;
+		}
+		final byte[] key = name.getBytes(UTF8);
+
+		// last name stored in full that is not greater than the key
+		int low = 0;
+		int high = restarts.length - 1;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			final Cursor cursor = new Cursor(middle);
+			cursor.next();
+			if (compare(cursor.name, cursor.nameLength, key, key.length) <= 0) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+
+		final Cursor cursor = new Cursor(low);
+		final int end = Math.min(size, (low + 1) * RESTART_INTERVAL);
+		for (int i = low * RESTART_INTERVAL; i < end; i++) {
+			cursor.next();
+			final int comparison = compare(cursor.name, cursor.nameLength, key, key.length);
+			if (comparison == 0) {
+				return i;
+			} else if (comparison > 0) {
+				break;
+			}
+		}
+		return -1;
+	}
+
+	/** @return the name at the given position in ORDER */
+	public String get(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		}
+		final Cursor cursor = new Cursor(index / RESTART_INTERVAL);
+		for (int i = index - index % RESTART_INTERVAL; i <= index; i++) {
+			cursor.next();
+		}
+		return cursor.name();
+	}
+
+	/** @return the names in ORDER */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private final Cursor cursor = size == 0 ? null : new Cursor(0);
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				cursor.next();
+				index++;
+				return cursor.name();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/** @return approximate number of bytes used */
+	public int getMemorySize() {
+		return data.length + 4 * restarts.length + 32;
+	}
+
+	@Override
+	public String toString() {
+		return size + " entries in " + getMemorySize() + " bytes";
+	}
+
+	/** compares UTF-8 bytes as unsigned */
+	private static int compare(final byte[] a, final int aLength, final byte[] b, final int bLength) {
+		final int length = Math.min(aLength, bLength);
+		for (int i = 0; i < length; i++) {
+			if (a[i] != b[i]) {
+				return (a[i] & 0xff) - (b[i] & 0xff);
+			}
+		}
+		return aLength - bLength;
+	}
+
+}
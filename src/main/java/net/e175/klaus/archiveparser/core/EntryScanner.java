@@ -0,0 +1,18 @@
+package net.e175.klaus.archiveparser.core;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+/** ArchiveScanner that can also list the other files in an archive, in the same pass. */
+public interface EntryScanner extends ArchiveScanner {
+
+	/**
+	 * Like findContainedArchives(archive), and must be followed by release(archive) just the same.
+	 *
+	 * @param entryNames
+	 *            gets the full paths of all files in the archive that are not archives, using '/' as separator
+	 */
+	List<File> findContainedArchives(final File archive, final Collection<String> entryNames);
+
+}
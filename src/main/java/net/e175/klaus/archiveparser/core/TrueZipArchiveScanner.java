@@ -0,0 +1,263 @@
+package net.e175.klaus.archiveparser.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.schlichtherle.io.ArchiveDetector;
+import de.schlichtherle.io.ArchiveException;
+import de.schlichtherle.io.File;
+
+/**
+ * ArchiveScanner walking archives as TrueZIP virtual file systems. Nested archives are extracted to temp files, which
+ * TrueZIP keeps, along with an open file for each archive, until the top-level archive is unmounted. TrueZIP can't
+ * unmount nested archives on their own, so this scanner unmounts each top-level archive when it is released, or keeps
+ * a bounded number of the most recently released ones mounted to scan them again cheaply.
+ * <p>
+ * Several threads may scan archives at the same time, even the same top-level archive: it stays mounted until the
+ * last of them has released it.
+ */
+public final class TrueZipArchiveScanner implements ArchiveScanner {
+
+	/** What a mounted top-level archive holds on to. */
+	private static final class Mount {
+		/** paths of the archive and nested archives scanned so far, each with an open file */
+		private final Set<String> archives = new HashSet<String>();
+		/** nested archives extracted to temp files */
+		private long extractedBytes;
+		/** of the top-level archive when it was mounted */
+		private final long lastModified;
+		/** number of scans of the top-level archive not released yet */
+		private int users;
+
+		Mount(final long lastModified) {
+			this.lastModified = lastModified;
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(TrueZipArchiveScanner.class);
+
+	private final int keptMounted;
+
+	/** all mounted top-level archives by path; guarded by itself, like the fields below */
+	private final Map<String, Mount> mounts = new HashMap<String, Mount>();
+	/** paths of released top-level archives kept mounted, least recently released first */
+	private final Set<String> released = new LinkedHashSet<String>();
+	private int mountedArchives;
+	private int peakMountedArchives;
+	private long extractedBytes;
+	private long peakExtractedBytes;
+
+	/** unmounts top-level archives as soon as they are released */
+	public TrueZipArchiveScanner() {
+		this(0);
+	}
+
+	/**
+	 * @param keptMounted
+	 *            number of released top-level archives to keep mounted, so scanning them again doesn't extract
+	 *            their nested archives again. Those that changed since are unmounted before scanning them again.
+	 */
+	public TrueZipArchiveScanner(final int keptMounted) {
+		if (keptMounted < 0) {
+			throw new IllegalArgumentException("keptMounted must not be negative, but is " + keptMounted);
+		}
+		this.keptMounted = keptMounted;
+	}
+
+	@Override
+	public List<java.io.File> findContainedArchives(final java.io.File archive) {
+		final File thisFile = new File(archive);
+		final boolean topLevel = thisFile.getEnclArchive() == null;
+		// top-level archives are checked without TrueZIP, which would mount them before they are accounted for
+		final java.io.File checked = topLevel ? new java.io.File(thisFile.getPath()) : thisFile;
+		if (!checked.exists() || !checked.canRead()) {
+			throw new IllegalArgumentException("file does not exist or is not readable: " + thisFile);
+		}
+
+		if (thisFile.isArchive()) {
+			mounted(thisFile, topLevel);
+		}
+		try {
+			return getAllArchivesInAllSubfoldersButNotInArchives(thisFile, new LinkedList<java.io.File>());
+		} catch (final RuntimeException e) {
+			// nobody will release it
+			if (topLevel && thisFile.isArchive() && releasedByAll(thisFile)) {
+				unmount(thisFile);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Unmounts top-level archives, or keeps the most recently released ones mounted. Otherwise TrueZIP would keep
+	 * their contents cached, and never notice if they change.
+	 */
+	@Override
+	public void release(final java.io.File archive) {
+		final File file = new File(archive);
+		if (!file.isArchive() || file.getEnclArchive() != null || !releasedByAll(file)) {
+			return;
+		}
+		if (keptMounted == 0) {
+			unmount(file);
+			return;
+		}
+
+		final List<String> evicted = new ArrayList<String>();
+		synchronized (mounts) {
+			if (mounts.containsKey(file.getPath())) {
+				released.remove(file.getPath());
+				released.add(file.getPath());
+			}
+			for (final Iterator<String> it = released.iterator(); released.size() > keptMounted;) {
+				evicted.add(it.next());
+				it.remove();
+			}
+		}
+		for (final String eldest : evicted) {
+			unmount(new File(eldest));
+		}
+	}
+
+	/** unmounts all top-level archives kept mounted after they were released */
+	public void unmountReleased() {
+		final List<String> all;
+		synchronized (mounts) {
+			all = new ArrayList<String>(released);
+			released.clear();
+		}
+		for (final String path : all) {
+			unmount(new File(path));
+		}
+	}
+
+	/** @return number of archives mounted now, each holding an open file */
+	public int getMountedArchives() {
+		synchronized (mounts) {
+			return mountedArchives;
+		}
+	}
+
+	/** @return highest number of archives mounted at the same time, each holding an open file */
+	public int getPeakMountedArchives() {
+		synchronized (mounts) {
+			return peakMountedArchives;
+		}
+	}
+
+	/** @return highest number of bytes of nested archives extracted to temp files at the same time */
+	public long getPeakExtractedBytes() {
+		synchronized (mounts) {
+			return peakExtractedBytes;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ENGLISH, "TrueZIP peak mounted archives=%d, peak extracted=%.1f MB",
+				getPeakMountedArchives(), getPeakExtractedBytes() / (1024.0 * 1024.0));
+	}
+
+	/**
+	 * Accounts for an archive about to be scanned, unmounting its top-level archive first if that changed. Must be
+	 * called before TrueZIP mounts a top-level archive, so nobody unmounts it while it is being scanned.
+	 */
+	private void mounted(final File archive, final boolean topLevel) {
+		final File top = topLevel ? archive : archive.getTopLevelArchive();
+		synchronized (mounts) {
+			if (topLevel) {
+				released.remove(top.getPath());
+				final Mount stale = mounts.get(top.getPath());
+				if (stale != null && stale.users == 0 && stale.lastModified != top.lastModified()) {
+					LOG.debug("{} changed while mounted, unmounting it", top);
+					unmount(top);
+				}
+			}
+
+			Mount mount = mounts.get(top.getPath());
+			if (mount == null) {
+				mount = new Mount(top.lastModified());
+				mounts.put(top.getPath(), mount);
+			}
+			if (topLevel) {
+				mount.users++;
+			}
+			if (mount.archives.add(archive.getPath())) {
+				mountedArchives++;
+				peakMountedArchives = Math.max(peakMountedArchives, mountedArchives);
+				if (!topLevel) {
+					final long size = extractedSizeOf(archive);
+					mount.extractedBytes += size;
+					extractedBytes += size;
+					peakExtractedBytes = Math.max(peakExtractedBytes, extractedBytes);
+				}
+			}
+		}
+	}
+
+	/** @return size of a nested archive as a file, rather than as the directory TrueZIP shows it as */
+	private static long extractedSizeOf(final File nested) {
+		return new File(nested.getEnclArchive(), nested.getEnclEntryName(), ArchiveDetector.NULL).length();
+	}
+
+	/** @return whether this was the last scan of the top-level archive not released yet */
+	private boolean releasedByAll(final File top) {
+		synchronized (mounts) {
+			final Mount mount = mounts.get(top.getPath());
+			return mount == null || --mount.users <= 0;
+		}
+	}
+
+	/** unmounts a top-level archive unless it is being scanned again meanwhile */
+	private void unmount(final File top) {
+		// while holding the lock, so nobody starts scanning it meanwhile
+		synchronized (mounts) {
+			final Mount mount = mounts.get(top.getPath());
+			if (mount != null && mount.users > 0) {
+				return;
+			}
+			try {
+				File.umount(top);
+			} catch (final ArchiveException e) {
+				LOG.warn("failed to unmount {}: {}", top, e.getMessage());
+			}
+			if (mount != null) {
+				mounts.remove(top.getPath());
+				mountedArchives -= mount.archives.size();
+				extractedBytes -= mount.extractedBytes;
+			}
+		}
+	}
+
+	private List<java.io.File> getAllArchivesInAllSubfoldersButNotInArchives(final File root,
+			final List<java.io.File> collectedFiles) {
+		final File archive = new File(root);
+
+		final java.io.File[] files = archive.listFiles();
+		if (files != null) {
+			for (final java.io.File onefile : files) {
+				final File f = new File(onefile);
+				if (f.isArchive()) {
+					collectedFiles.add(f);
+				} else if (f.isDirectory()) {
+					collectedFiles.addAll(getAllArchivesInAllSubfoldersButNotInArchives(f,
+							new LinkedList<java.io.File>()));
+				}
+			}
+		}
+
+		return collectedFiles;
+	}
+
+}
@@ -1,35 +1,260 @@
 package net.e175.klaus.archiveparser.core;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.e175.klaus.archiveparser.id.ArchiveID;
 import net.e175.klaus.archiveparser.id.ArchiveIDProvider;
 import net.e175.klaus.archiveparser.id.ArchiveType;
+import net.e175.klaus.archiveparser.metrics.MetricsListener;
+import net.e175.klaus.archiveparser.metrics.Phase;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Factory that creates only one ArchiveFile instance per JAR ID. Safe for use from multiple threads: each JAR is
+ * parsed exactly once by the first thread asking for it, while threads asking for the same JAR in the meantime wait
+ * for that result. Requests for different JARs never block each other.
+ * <p>
+ * By default, JARs are the same if their IDs are. Optionally, JARs found by a scanner that knows their content (see
+ * ArchiveContent) are the same if their content is, which also catches renamed copies of a JAR and tells apart
+ * different builds that carry the same name. The first name seen for some content is the one reported.
+ */
 public class UniqueJarFactory implements ArchiveFileFactory {
 
-	private final Map<ArchiveID, ArchiveFile> jars = new HashMap<ArchiveID, ArchiveFile>();
+	/** How to tell whether two JARs are the same. */
+	public static enum JarIdentity {
+		/** same ID, i.e. same name and version */
+		NAME,
+		/** same CRC-32 and size according to the enclosing archive's central directory; falls back to NAME */
+		CONTENT,
+		/** like CONTENT, but also with the same SHA-1 digest, which costs reading each JAR once more */
+		CONTENT_DIGEST
+	}
+
+	/** Key for JARs identified by content. */
+	private static final class ContentKey {
+		private final long crc;
+		private final long size;
+		private final byte[] digest;
+
+		ContentKey(final long crc, final long size, final byte[] digest) {
+			this.crc = crc;
+			this.size = size;
+			this.digest = digest;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof ContentKey)) {
+				return false;
+			}
+			final ContentKey other = (ContentKey) obj;
+			return crc == other.crc && size == other.size && Arrays.equals(digest, other.digest);
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (crc ^ size * 31);
+		}
+	}
+
+	/** Snapshot of deduplication statistics. */
+	public static final class Statistics {
+		private final long hits;
+		private final long misses;
+		private final long waits;
+		private final long waitNanos;
+
+		Statistics(final long hits, final long misses, final long waits, final long waitNanos) {
+			this.hits = hits;
+			this.misses = misses;
+			this.waits = waits;
+			this.waitNanos = waitNanos;
+		}
+
+		/** @return number of requests answered with an already known JAR */
+		public long getHits() {
+			return hits;
+		}
+
+		/** @return number of requests that had to parse a new JAR */
+		public long getMisses() {
+			return misses;
+		}
+
+		/** @return number of hits that had to wait for another thread still parsing the JAR */
+		public long getWaits() {
+			return waits;
+		}
+
+		/** @return total time spent waiting for JARs parsed by other threads */
+		public long getWaitTime(final TimeUnit unit) {
+			return unit.convert(waitNanos, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", waits=" + waits + ", waitTime="
+					+ getWaitTime(TimeUnit.MILLISECONDS) + "ms";
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(UniqueJarFactory.class);
+
+	/** algorithm of the digests compared by JarIdentity.CONTENT_DIGEST */
+	public static final String DIGEST_ALGORITHM = "SHA-1";
+
+	/** keyed by ArchiveID or ContentKey */
+	private final ConcurrentMap<Object, FutureTask<ArchiveFile>> jars = new ConcurrentHashMap<Object, FutureTask<ArchiveFile>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	private final ArchiveScanner archiveScanner;
+	private final JarIdentity identity;
+
+	private MetricsListener metricsListener;
+
+	private boolean indexEntries;
 
+	public UniqueJarFactory() {
+		this(new TrueZipArchiveScanner());
+	}
+
+	public UniqueJarFactory(final ArchiveScanner archiveScanner) {
+		this(archiveScanner, JarIdentity.NAME);
+	}
+
+	public UniqueJarFactory(final ArchiveScanner archiveScanner, final JarIdentity identity) {
+		this.archiveScanner = archiveScanner;
+		this.identity = identity;
+	}
+
+	/**
+	 * @param metricsListener
+	 *            told about each wait for a JAR parsed by another thread, or null; set before use
+	 */
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+	}
+
+	/**
+	 * @param indexEntries
+	 *            whether to keep the names of the files in each JAR, see ArchiveFile.getEntries(), so they are shared
+	 *            like the JARs; set before use
+	 */
+	public void setIndexEntries(final boolean indexEntries) {
+		this.indexEntries = indexEntries;
+	}
+
+	@Override
+	public ArchiveFile getInstanceFor(final File file, final ArchiveIDProvider idProvider) {
+		return getInstanceFor(file, idProvider, ArchiveFile.UNLIMITED_DEPTH);
+	}
+
+	/** A JAR is parsed with the maxDepth of the first request for it. */
 	@Override
-	public synchronized ArchiveFile getInstanceFor(final File file, final ArchiveIDProvider idProvider) {
+	public ArchiveFile getInstanceFor(final File file, final ArchiveIDProvider idProvider, final int maxDepth) {
 		final ArchiveID id = idProvider.idForFile(file);
-		ArchiveFile archiveInstance = null;
-
-		if (id.getType().equals(ArchiveType.JAR)) {
-			final ArchiveFile storedFile = jars.get(id);
-			if (storedFile != null) {
-				archiveInstance = storedFile;
-			} else {
-				archiveInstance = new ArchiveFile(file, idProvider, this);
-				jars.put(id, archiveInstance);
+
+		if (!id.getType().equals(ArchiveType.JAR)) {
+			return new ArchiveFile(file, idProvider, this, archiveScanner, maxDepth, false, indexEntries);
+		}
+
+		final Object key = keyFor(file, id);
+		FutureTask<ArchiveFile> task = jars.get(key);
+		if (task == null) {
+			final FutureTask<ArchiveFile> newTask = new FutureTask<ArchiveFile>(new Callable<ArchiveFile>() {
+				@Override
+				public ArchiveFile call() {
+					return new ArchiveFile(file, idProvider, UniqueJarFactory.this, archiveScanner, maxDepth,
+							false, indexEntries);
+				}
+			});
+			task = jars.putIfAbsent(key, newTask);
+			if (task == null) {
+				misses.incrementAndGet();
+				newTask.run();
+				return resultOf(key, id, newTask);
 			}
+		}
+
+		hits.incrementAndGet();
+		final ArchiveFile result;
+		if (task.isDone()) {
+			result = resultOf(key, id, task);
 		} else {
-			archiveInstance = new ArchiveFile(file, idProvider, this);
+			waits.incrementAndGet();
+			final long start = System.nanoTime();
+			try {
+				result = resultOf(key, id, task);
+			} finally {
+				final long nanos = System.nanoTime() - start;
+				waitNanos.addAndGet(nanos);
+				if (metricsListener != null) {
+					metricsListener.completed(Phase.WAIT, null, -1, nanos, 0);
+				}
+			}
+		}
+
+		if (key != id && LOG.isDebugEnabled() && !result.getArchiveID().equals(id)) {
+			LOG.debug("{} has the same content as {}", file, result);
+		}
+		return result;
+	}
+
+	private Object keyFor(final File file, final ArchiveID id) {
+		if (identity == JarIdentity.NAME || !(file instanceof ArchiveContent)) {
+			return id;
 		}
 
-		return archiveInstance;
+		final ArchiveContent content = (ArchiveContent) file;
+		byte[] digest = null;
+		if (identity == JarIdentity.CONTENT_DIGEST) {
+			try {
+				digest = content.digest(DIGEST_ALGORITHM);
+			} catch (final IOException e) {
+				LOG.warn("cannot read {} to compute its digest, identifying it by name: {}", file, e.getMessage());
+				return id;
+			}
+		}
+		return new ContentKey(content.getCrc(), content.getSize(), digest);
+	}
+
+	private ArchiveFile resultOf(final Object key, final ArchiveID id, final FutureTask<ArchiveFile> task) {
+		try {
+			return task.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for " + id, e);
+		} catch (final ExecutionException e) {
+			// don't cache failures, let later requests try again
+			jars.remove(key, task);
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("failed to parse " + id, cause);
+		}
+	}
+
+	/** @return current deduplication statistics */
+	public Statistics getStatistics() {
+		return new Statistics(hits.get(), misses.get(), waits.get(), waitNanos.get());
 	}
 
 }
@@ -0,0 +1,44 @@
+package net.e175.klaus.archiveparser.id;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * Orders archive IDs by name, version and type, without building their string representation. Unknown (null) names
+ * and versions come first.
+ */
+public final class ArchiveIDComparator implements Comparator<ArchiveID>, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final ArchiveIDComparator INSTANCE = new ArchiveIDComparator();
+
+	@Override
+	public int compare(final ArchiveID o1, final ArchiveID o2) {
+		if (o1 == o2) {
+			return 0;
+		}
+		int result = compare(o1.getName(), o2.getName());
+		if (result == 0) {
+			result = compare(o1.getVersion(), o2.getVersion());
+		}
+		if (result == 0) {
+			result = o1.getType().compareTo(o2.getType());
+		}
+		return result;
+	}
+
+	private static int compare(final String s1, final String s2) {
+		if (s1 == s2) {
+			return 0;
+		} else if (s1 == null) {
+			return -1;
+		} else if (s2 == null) {
+			return 1;
+		}
+		return s1.compareTo(s2);
+	}
+
+	private Object readResolve() {
+		return INSTANCE;
+	}
+}
@@ -0,0 +1,80 @@
+package net.e175.klaus.archiveparser.id;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares equal archive IDs, names and versions, so that the same JAR found in many archives is represented by a single
+ * ID instance. Thread-safe. A bounded pool simply stops taking new values when it is full; values already handed out
+ * are never affected by bounding or clearing.
+ */
+public final class ArchiveIDPool {
+	/** default maximum number of pooled IDs and strings */
+	public static final int DEFAULT_MAX_SIZE = 500000;
+
+	private final ConcurrentMap<ArchiveID, ArchiveID> ids = new ConcurrentHashMap<ArchiveID, ArchiveID>();
+	private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<String, String>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final int maxSize;
+
+	public ArchiveIDPool() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * @param maxSize
+	 *            maximum number of IDs and strings to pool
+	 */
+	public ArchiveIDPool(final int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/** @return the pooled ID equal to id, or a copy of id sharing pooled names and versions */
+	public ArchiveID intern(final ArchiveID id) {
+		if (id == null) {
+			return null;
+		}
+		final ArchiveID pooled = ids.get(id);
+		if (pooled != null) {
+			return pooled;
+		}
+
+		final ArchiveID compact = id instanceof MavenArchiveID ? new MavenArchiveID(intern(id.getName()),
+				intern(id.getVersion()), id.getType()) : id;
+		return add(ids, compact);
+	}
+
+	/** @return the pooled string equal to s, or s itself */
+	public String intern(final String s) {
+		if (s == null) {
+			return null;
+		}
+		final String pooled = strings.get(s);
+		return pooled != null ? pooled : add(strings, s);
+	}
+
+	private <T> T add(final ConcurrentMap<T, T> pool, final T value) {
+		if (size.get() >= maxSize) {
+			return value;
+		}
+		final T pooled = pool.putIfAbsent(value, value);
+		if (pooled != null) {
+			return pooled;
+		}
+		size.incrementAndGet();
+		return value;
+	}
+
+	/** @return number of pooled IDs and strings */
+	public int size() {
+		return size.get();
+	}
+
+	/** forgets all pooled values, e.g. between independent runs */
+	public void clear() {
+		ids.clear();
+		strings.clear();
+		size.set(0);
+	}
+}
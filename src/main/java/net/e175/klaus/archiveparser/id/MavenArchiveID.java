@@ -1,23 +1,34 @@
 package net.e175.klaus.archiveparser.id;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+/**
+ * Archive ID following Maven naming conventions, i.e. filenames like name-version.jar. Filenames are split with a
+ * hand-written tokenizer that gives the same results as the regular expressions (.*)\.(j|w|e|r)ar (case-insensitive)
+ * for the whole filename and (.*)-(\d.*) for name and version.
+ */
 public final class MavenArchiveID implements ArchiveID {
-	private static final Pattern MVN_PATTERN = Pattern.compile("(.*)\\.(j|w|e|r)ar", Pattern.CASE_INSENSITIVE);
-	private static final Pattern NAME_VERSION_PATTERN = Pattern.compile("(.*)-(\\d{1}.*)", Pattern.CASE_INSENSITIVE);
+	private static final String SUFFIX_FORMAT = "<name>.(jar|war|ear|rar)";
+	private static final int SUFFIX_LENGTH = 4;
 
-	private String name;
-	private String version;
-	private ArchiveType type = ArchiveType.OTHER;
+	private final String name;
+	private final String version;
+	private final ArchiveType type;
+	/** IDs are compared and hashed a lot while parsing and indexing, so their hash is computed only once */
+	private final int hash;
+	private String string;
 
 	public MavenArchiveID() {
+		this(null, null, ArchiveType.OTHER);
 	}
 
 	public MavenArchiveID(final String name, final String version, final ArchiveType type) {
 		this.name = name;
 		this.version = version;
 		this.type = type;
+
+		int h = name == null ? 0 : name.hashCode();
+		h = 31 * h + (version == null ? 0 : version.hashCode());
+		h = 31 * h + (type == null ? 0 : type.ordinal());
+		this.hash = h;
 	}
 
 	@Override
@@ -37,60 +48,116 @@ public final class MavenArchiveID implements ArchiveID {
 
 	@Override
 	public ArchiveID parse(final String filename) {
-		final MavenArchiveID id = new MavenArchiveID();
+		final ArchiveID id = tryParse(filename);
+		if (id == null) {
+			throw new IllegalArgumentException("filename " + filename + " is not in valid format " + SUFFIX_FORMAT);
+		}
+		return id;
+	}
+
+	@Override
+	public boolean isApplicable(final String filename) {
+		return typeOf(filename) != null;
+	}
 
-		Matcher matcher = MVN_PATTERN.matcher(filename);
-		if (!matcher.matches()) {
-			throw new IllegalArgumentException("filename " + filename + " is not in valid format " + MVN_PATTERN);
+	/**
+	 * Like parse, but for filenames that may not be applicable. This saves checking them with isApplicable first.
+	 * 
+	 * @return the ID, or null if the filename isn't applicable
+	 */
+	public ArchiveID tryParse(final String filename) {
+		final ArchiveType idType = typeOf(filename);
+		if (idType == null) {
+			return null;
 		}
 
-		id.name = matcher.group(1);
-		id.version = UNKNOWN_VERSION;
+		final int nameEnd = filename.length() - SUFFIX_LENGTH;
+		// the version starts after the last dash that is followed by a digit
+		for (int i = nameEnd - 2; i >= 0; i--) {
+			if (filename.charAt(i) == '-' && isDigit(filename.charAt(i + 1))) {
+				return new MavenArchiveID(filename.substring(0, i), filename.substring(i + 1, nameEnd), idType);
+			}
+		}
+		return new MavenArchiveID(filename.substring(0, nameEnd), UNKNOWN_VERSION, idType);
+	}
 
-		switch (matcher.group(2).toLowerCase().charAt(0)) {
+	/** @return type according to the filename's suffix, or null if the filename isn't applicable */
+	private static ArchiveType typeOf(final String filename) {
+		final int nameEnd = filename.length() - SUFFIX_LENGTH;
+		if (nameEnd < 0 || filename.charAt(nameEnd) != '.' || lowerCase(filename.charAt(nameEnd + 2)) != 'a'
+				|| lowerCase(filename.charAt(nameEnd + 3)) != 'r') {
+			return null;
+		}
+
+		final ArchiveType idType;
+		switch (lowerCase(filename.charAt(nameEnd + 1))) {
 		case 'j':
-			id.type = ArchiveType.JAR;
+			idType = ArchiveType.JAR;
 			break;
 		case 'w':
-			id.type = ArchiveType.WAR;
+			idType = ArchiveType.WAR;
 			break;
 		case 'e':
-			id.type = ArchiveType.EAR;
+			idType = ArchiveType.EAR;
 			break;
 		case 'r':
-			id.type = ArchiveType.RAR;
+			idType = ArchiveType.RAR;
 			break;
 		default:
-			id.type = ArchiveType.OTHER;
+			return null;
 		}
 
-		matcher = NAME_VERSION_PATTERN.matcher(id.name);
-		if (matcher.matches()) {
-			id.name = matcher.group(1);
-			id.version = matcher.group(2);
+		// like '.' in a regular expression, names must not contain line terminators
+		for (int i = 0; i < nameEnd; i++) {
+			if (isLineTerminator(filename.charAt(i))) {
+				return null;
+			}
 		}
+		return idType;
+	}
 
-		return id;
+	/** ASCII-only, like case-insensitive regular expressions by default */
+	private static char lowerCase(final char c) {
+		return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
 	}
 
-	@Override
-	public boolean isApplicable(final String filename) {
-		final Matcher matcher = MVN_PATTERN.matcher(filename);
-		return matcher.matches();
+	/** ASCII-only, like \d in regular expressions by default */
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLineTerminator(final char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
 	}
 
 	@Override
 	public String toString() {
-		return name + PART_SEPARATOR + version + PART_SEPARATOR + type;
+		// racy but harmless: the string is immutable and always built the same way
+		String s = string;
+		if (s == null) {
+			s = name + PART_SEPARATOR + version + PART_SEPARATOR + type;
+			string = s;
+		}
+		return s;
 	}
 
 	@Override
 	public int hashCode() {
-		return toString().hashCode();
+		return hash;
 	}
 
 	@Override
 	public boolean equals(final Object obj) {
-		return obj instanceof MavenArchiveID && toString().equals(obj.toString());
+		if (obj == this) {
+			return true;
+		} else if (!(obj instanceof MavenArchiveID)) {
+			return false;
+		}
+		final MavenArchiveID other = (MavenArchiveID) obj;
+		return hash == other.hash && type == other.type && equal(name, other.name) && equal(version, other.version);
+	}
+
+	private static boolean equal(final String s1, final String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
 	}
 }
@@ -5,10 +5,27 @@ import java.util.Locale;
 
 public final class MavenArchiveIDProvider implements ArchiveIDProvider {
 
+	private final ArchiveIDPool pool;
+
+	public MavenArchiveIDProvider() {
+		this(null);
+	}
+
+	/**
+	 * @param pool
+	 *            to share equal IDs in, or null to create a new ID for each file
+	 */
+	public MavenArchiveIDProvider(final ArchiveIDPool pool) {
+		this.pool = pool;
+	}
+
 	@Override
 	public ArchiveID idForFile(final File archiveFile) {
-		final String name = archiveFile.getName().toLowerCase(Locale.ENGLISH);
+		final ArchiveID id = parse(archiveFile.getName().toLowerCase(Locale.ENGLISH));
+		return pool == null ? id : pool.intern(id);
+	}
 
+	private static ArchiveID parse(final String name) {
 		if (name.endsWith(".ear")) {
 			return new MavenArchiveID().parse(name);
 		} else if (name.endsWith(".war") || name.endsWith(".jar") || name.endsWith(".rar")) {
@@ -0,0 +1,29 @@
+package net.e175.klaus.archiveparser.metrics;
+
+import java.io.File;
+
+import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveIDProvider;
+
+/** ArchiveIDProvider reporting how long another provider takes to derive each ID. */
+public final class MeasuringArchiveIDProvider implements ArchiveIDProvider {
+
+	private final ArchiveIDProvider delegate;
+	private final MetricsListener listener;
+
+	public MeasuringArchiveIDProvider(final ArchiveIDProvider delegate, final MetricsListener listener) {
+		this.delegate = delegate;
+		this.listener = listener;
+	}
+
+	@Override
+	public ArchiveID idForFile(final File archiveFile) {
+		final long start = System.nanoTime();
+		try {
+			return delegate.idForFile(archiveFile);
+		} finally {
+			listener.completed(Phase.IDENTIFY, null, -1, System.nanoTime() - start, 0);
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package net.e175.klaus.archiveparser.metrics;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+import net.e175.klaus.archiveparser.core.ArchiveContent;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.EntryScanner;
+
+/**
+ * ArchiveScanner reporting how long another scanner takes to scan and release each archive. An archive and all
+ * archives in it are scanned by the same thread, released in reverse order, so each thread's archives being scanned
+ * tell the depth and top-level archive of the next one.
+ */
+public class MeasuringArchiveScanner implements ArchiveScanner {
+
+	/** Also lists entries, like the EntryScanner it measures. */
+	private static final class Entries extends MeasuringArchiveScanner implements EntryScanner {
+		private final EntryScanner entryScanner;
+
+		Entries(final EntryScanner delegate, final MetricsListener listener) {
+			super(delegate, listener);
+			entryScanner = delegate;
+		}
+
+		@Override
+		public List<File> findContainedArchives(final File archive, final Collection<String> entryNames) {
+			final long start = System.nanoTime();
+			final List<File> archives = entryScanner.findContainedArchives(archive, entryNames);
+			super.scanned(archive, System.nanoTime() - start);
+			return archives;
+		}
+	}
+
+	private final ArchiveScanner delegate;
+	private final MetricsListener listener;
+
+	private final ThreadLocal<Deque<File>> scanning = new ThreadLocal<Deque<File>>() {
+		@Override
+		protected Deque<File> initialValue() {
+			return new ArrayDeque<File>();
+		}
+	};
+
+	private MeasuringArchiveScanner(final ArchiveScanner delegate, final MetricsListener listener) {
+		this.delegate = delegate;
+		this.listener = listener;
+	}
+
+	/** @return scanner measuring the delegate, which is an EntryScanner if and only if the delegate is one */
+	public static MeasuringArchiveScanner of(final ArchiveScanner delegate, final MetricsListener listener) {
+		return delegate instanceof EntryScanner ? new Entries((EntryScanner) delegate, listener)
+				: new MeasuringArchiveScanner(delegate, listener);
+	}
+
+	@Override
+	public final List<File> findContainedArchives(final File archive) {
+		final long start = System.nanoTime();
+		final List<File> archives = delegate.findContainedArchives(archive);
+		scanned(archive, System.nanoTime() - start);
+		return archives;
+	}
+
+	private void scanned(final File archive, final long nanos) {
+		final Deque<File> enclosing = scanning.get();
+		final File topLevel = enclosing.isEmpty() ? archive : enclosing.peekFirst();
+		listener.completed(Phase.SCAN, topLevel, enclosing.size(), nanos, sizeOf(archive));
+		enclosing.addLast(archive);
+	}
+
+	@Override
+	public final void release(final File archive) {
+		final Deque<File> enclosing = scanning.get();
+		enclosing.removeLastOccurrence(archive);
+		final long start = System.nanoTime();
+		delegate.release(archive);
+		listener.completed(Phase.RELEASE, enclosing.isEmpty() ? archive : enclosing.peekFirst(), enclosing.size(),
+				System.nanoTime() - start, 0);
+	}
+
+	private static long sizeOf(final File archive) {
+		return archive instanceof ArchiveContent ? ((ArchiveContent) archive).getSize() : archive.length();
+	}
+
+}
@@ -0,0 +1,123 @@
+package net.e175.klaus.archiveparser.metrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MetricsListener adding up counts, times and bytes per phase, per nesting depth and per top-level archive, for a
+ * summary at the end of a run.
+ */
+public final class Metrics implements MetricsListener {
+
+	/** depths from this one on are added up together */
+	private static final int MAX_DEPTH = 3;
+
+	/** number of top-level archives listed in the summary */
+	private static final int SLOWEST_ARCHIVES = 10;
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private static final int COUNT = 0;
+	private static final int NANOS = 1;
+	private static final int BYTES = 2;
+
+	private final AtomicLongArray byPhase = new AtomicLongArray(3 * Phase.values().length);
+	/** for SCAN only, as the other phases aren't done per nested archive */
+	private final AtomicLongArray byDepth = new AtomicLongArray(3 * (MAX_DEPTH + 1));
+	private final ConcurrentMap<File, AtomicLongArray> byArchive = new ConcurrentHashMap<File, AtomicLongArray>();
+
+	@Override
+	public void completed(final Phase phase, final File archive, final int depth, final long nanos, final long bytes) {
+		add(byPhase, phase.ordinal(), nanos, bytes);
+
+		if (phase == Phase.SCAN && depth >= 0) {
+			add(byDepth, Math.min(depth, MAX_DEPTH), nanos, bytes);
+		}
+
+		if (phase == Phase.PARSE && archive != null) {
+			AtomicLongArray values = byArchive.get(archive);
+			if (values == null) {
+				final AtomicLongArray newValues = new AtomicLongArray(3);
+				values = byArchive.putIfAbsent(archive, newValues);
+				if (values == null) {
+					values = newValues;
+				}
+			}
+			add(values, 0, nanos, bytes);
+		}
+	}
+
+	private static void add(final AtomicLongArray values, final int index, final long nanos, final long bytes) {
+		values.incrementAndGet(3 * index + COUNT);
+		values.addAndGet(3 * index + NANOS, nanos);
+		values.addAndGet(3 * index + BYTES, bytes);
+	}
+
+	public long getCount(final Phase phase) {
+		return byPhase.get(3 * phase.ordinal() + COUNT);
+	}
+
+	public long getTime(final Phase phase, final TimeUnit unit) {
+		return unit.convert(byPhase.get(3 * phase.ordinal() + NANOS), TimeUnit.NANOSECONDS);
+	}
+
+	public long getBytes(final Phase phase) {
+		return byPhase.get(3 * phase.ordinal() + BYTES);
+	}
+
+	/**
+	 * @return a table of all phases, scans per nesting depth and the top-level archives that took longest to parse.
+	 *         Times of phases done concurrently add up, so they may exceed the wall-clock time.
+	 */
+	public String summary() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ENGLISH, "%-30s %10s %12s %12s%n", "phase", "count", "time (ms)", "MB"));
+		for (final Phase phase : Phase.values()) {
+			append(sb, phase.name(), byPhase, phase.ordinal());
+		}
+
+		sb.append("SCAN by nesting depth:").append(LINE_SEPARATOR);
+		for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+			append(sb, "  depth " + depth + (depth == MAX_DEPTH ? "+" : ""), byDepth, depth);
+		}
+
+		final List<Map.Entry<File, AtomicLongArray>> archives = new ArrayList<Map.Entry<File, AtomicLongArray>>(
+				byArchive.entrySet());
+		Collections.sort(archives, new Comparator<Map.Entry<File, AtomicLongArray>>() {
+			@Override
+			public int compare(final Map.Entry<File, AtomicLongArray> o1, final Map.Entry<File, AtomicLongArray> o2) {
+				final long nanos1 = o1.getValue().get(NANOS);
+				final long nanos2 = o2.getValue().get(NANOS);
+				return nanos1 < nanos2 ? 1 : nanos1 > nanos2 ? -1 : 0;
+			}
+		});
+		sb.append("PARSE of the slowest top-level archives:").append(LINE_SEPARATOR);
+		for (final Map.Entry<File, AtomicLongArray> archive : archives.subList(0,
+				Math.min(SLOWEST_ARCHIVES, archives.size()))) {
+			append(sb, "  " + archive.getKey().getName(), archive.getValue(), 0);
+		}
+		return sb.toString();
+	}
+
+	private static void append(final StringBuilder sb, final String label, final AtomicLongArray values,
+			final int index) {
+		sb.append(String.format(Locale.ENGLISH, "%-30s %10d %12d %12.1f%n", label, values.get(3 * index + COUNT),
+				TimeUnit.NANOSECONDS.toMillis(values.get(3 * index + NANOS)), values.get(3 * index + BYTES)
+						/ (1024.0 * 1024.0)));
+	}
+
+	@Override
+	public String toString() {
+		return summary();
+	}
+
+}
@@ -0,0 +1,27 @@
+package net.e175.klaus.archiveparser.metrics;
+
+import java.io.File;
+
+/**
+ * Receives measurements while archives are parsed and reported on. Implementations must be thread-safe and fast, as
+ * they are called from parsing threads for each archive. Where a listener is optional, null means no measurements are
+ * taken at all.
+ */
+public interface MetricsListener {
+
+	/**
+	 * @param phase
+	 *            what has been done
+	 * @param archive
+	 *            the top-level archive it was done for, or null if it wasn't done for a particular one
+	 * @param depth
+	 *            how deep the archive concerned is nested in the top-level archive (0 for the top-level archive
+	 *            itself), or -1 if not applicable
+	 * @param nanos
+	 *            how long it took
+	 * @param bytes
+	 *            size of the archive concerned, or 0 if not applicable
+	 */
+	void completed(final Phase phase, final File archive, final int depth, final long nanos, final long bytes);
+
+}
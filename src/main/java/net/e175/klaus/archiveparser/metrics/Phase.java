@@ -0,0 +1,21 @@
+package net.e175.klaus.archiveparser.metrics;
+
+/** What time is spent on while creating a report. */
+public enum Phase {
+	/** finding the EARs in a directory */
+	LIST,
+	/** finding the archives in an archive, including TrueZIP extracting nested archives to temp files */
+	SCAN,
+	/** releasing an archive once it has been scanned, e.g. TrueZIP unmounting it */
+	RELEASE,
+	/** deriving archive IDs from file names */
+	IDENTIFY,
+	/** waiting for a shared JAR another thread is still parsing */
+	WAIT,
+	/** parsing a top-level archive altogether, including all of the above but LIST */
+	PARSE,
+	/** mapping JARs to the EARs containing them */
+	INDEX,
+	/** writing the report */
+	WRITE
+}
@@ -0,0 +1,20 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.io.File;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+
+/**
+ * Receives archives one at a time as they are parsed, see
+ * {@link EarJarParser#parseFiles(java.util.Collection, net.e175.klaus.archiveparser.core.ArchiveFileFactory, ArchiveSink)}
+ * .
+ */
+public interface ArchiveSink {
+	/**
+	 * @param file
+	 *            the file parsed
+	 * @param archive
+	 *            the archive parsed from it
+	 */
+	void accept(File file, ArchiveFile archive);
+}
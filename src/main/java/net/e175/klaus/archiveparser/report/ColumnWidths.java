@@ -0,0 +1,41 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * Tracks the widest value written to each column of a sheet, to size columns without Sheet.autoSizeColumn, which
+ * measures every cell with AWT font metrics and is very slow on large sheets.
+ */
+final class ColumnWidths {
+	/** widest column we create, in characters */
+	static final int MAX_CHARACTERS = 80;
+
+	/** room for cell margins, in characters */
+	private static final int PADDING = 2;
+
+	/** Excel's unit for column widths is 1/256th of a character */
+	private static final int UNITS_PER_CHARACTER = 256;
+
+	private int[] widths = new int[16];
+	private int columnCount;
+
+	void update(final int column, final String value) {
+		if (column >= widths.length) {
+			widths = Arrays.copyOf(widths, Math.max(column + 1, widths.length * 2));
+		}
+		if (value.length() > widths[column]) {
+			widths[column] = Math.min(value.length(), MAX_CHARACTERS);
+		}
+		if (column >= columnCount) {
+			columnCount = column + 1;
+		}
+	}
+
+	void applyTo(final Sheet sheet) {
+		for (int i = 0; i < columnCount; i++) {
+			sheet.setColumnWidth(i, (widths[i] + PADDING) * UNITS_PER_CHARACTER);
+		}
+	}
+}
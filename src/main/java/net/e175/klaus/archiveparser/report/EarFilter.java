@@ -1,17 +1,215 @@
 package net.e175.klaus.archiveparser.report;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import net.e175.klaus.archiveparser.id.ArchiveID;
 import net.e175.klaus.archiveparser.id.ArchiveType;
 import net.e175.klaus.archiveparser.id.MavenArchiveID;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 public final class EarFilter {
+
+	/** EARs found by {@link EarFilter#walkEarFiles(Collection, int)}, to be closed if not iterated to the end. */
+	public interface EarWalk extends Iterator<File>, Closeable {
+		/** Stops the search; hasNext returns false from now on. */
+		@Override
+		void close();
+	}
+
+	/**
+	 * EARs found while walking directory trees in parallel. Each directory is read by one of a fixed number of
+	 * threads, which pass on the EARs found and queue the subdirectories for the next free thread.
+	 */
+	private final class Walk implements EarWalk {
+		/** marks the end of the walk in the queue */
+		private final File end = new File("");
+
+		private final BlockingQueue<File> found = new LinkedBlockingQueue<File>();
+		/** directories queued or being read, plus one while the walk is being started */
+		private final AtomicInteger pendingDirectories = new AtomicInteger(1);
+		private final Set<File> visited = Collections.synchronizedSet(new HashSet<File>());
+		private final ExecutorService executor;
+		private volatile RuntimeException failure;
+		private volatile boolean closed;
+		private File next;
+
+		Walk(final Collection<File> roots, final int concurrentReads) {
+			executor = Executors.newFixedThreadPool(concurrentReads, new ThreadFactory() {
+				private final AtomicInteger threads = new AtomicInteger();
+
+				@Override
+				public Thread newThread(final Runnable r) {
+					final Thread thread = new Thread(r, "ear-walk-" + threads.incrementAndGet());
+					// nobody may be waiting for the walk to finish
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			for (final File root : roots) {
+				read(root, "");
+			}
+			finishedDirectory();
+		}
+
+		private void read(final File directory, final String relativePath) {
+			pendingDirectories.incrementAndGet();
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							readDirectory(directory, relativePath);
+						} catch (final RuntimeException e) {
+							failure = e;
+						} finally {
+							finishedDirectory();
+						}
+					}
+				});
+			} catch (final RejectedExecutionException e) {
+				// closed meanwhile
+				finishedDirectory();
+			}
+		}
+
+		private void finishedDirectory() {
+			if (pendingDirectories.decrementAndGet() == 0) {
+				executor.shutdown();
+				found.add(end);
+			}
+		}
+
+		private void readDirectory(final File directory, final String relativePath) {
+			try {
+				if (!visited.add(directory.getCanonicalFile())) {
+					// been there via some link
+					return;
+				}
+			} catch (final IOException e) {
+				LOG.warn("cannot resolve {}, skipping it: {}", directory, e.getMessage());
+				return;
+			}
+
+			final String[] names = directory.list();
+			if (names == null) {
+				LOG.warn("cannot list {}, skipping it", directory);
+				return;
+			}
+			Arrays.sort(names);
+
+			final MavenArchiveID id = new MavenArchiveID();
+			for (final String name : names) {
+				if (closed) {
+					return;
+				}
+				final File file = new File(directory, name);
+				final String path = relativePath.length() == 0 ? name : relativePath + "/" + name;
+				final ArchiveID archiveId = id.tryParse(name);
+				if (archiveId != null && archiveId.getType() == ArchiveType.EAR) {
+					if (isIncluded(path)) {
+						found.add(file);
+					}
+				} else if (!matchesAny(excludes, path) && !matchesAny(excludes, path + "/")
+						&& file.isDirectory()) {
+					read(file, path);
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (closed) {
+				return false;
+			}
+			if (next == null) {
+				try {
+					next = found.take();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					executor.shutdownNow();
+					throw new IllegalStateException("interrupted while looking for EARs", e);
+				}
+				if (next == end) {
+					found.add(end);
+					if (failure != null && !closed) {
+						throw failure;
+					}
+				}
+			}
+			return next != end;
+		}
+
+		@Override
+		public File next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final File result = next;
+			next = null;
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			executor.shutdownNow();
+			// wakes up hasNext, as directories dropped from the queue never finish
+			found.add(end);
+		}
+	}
+
+	private static final Logger LOG = LoggerFactory.getLogger(EarFilter.class);
+
+	private List<Pattern> includes = Collections.emptyList();
+	private List<Pattern> excludes = Collections.emptyList();
+
+	/**
+	 * @param globs
+	 *            only EARs matching at least one of these globs are found (default: all EARs). See
+	 *            {@link #setExcludes(String...)} for the syntax.
+	 */
+	public void setIncludes(final String... globs) {
+		includes = compileGlobs(globs);
+	}
+
+	/**
+	 * @param globs
+	 *            EARs and directories matching any of these globs are skipped. Globs are matched against paths
+	 *            relative to the directory searched, separated by '/'; those without '/' are matched against names
+	 *            only. '*' and '?' match any characters but '/', '**' matches any characters, '**&#47;' any number
+	 *            of directories, [abc] and [!abc] one of (or none of) the characters given, {a,b} either a or b.
+	 */
+	public void setExcludes(final String... globs) {
+		excludes = compileGlobs(globs);
+	}
+
 	public List<File> filterEarFiles(final File directory) {
 		final List<String> fileNames = Arrays.asList(directory.list());
 
@@ -19,7 +217,9 @@ public final class EarFilter {
 
 		final List<File> fileList = new ArrayList<File>();
 		for (final String fileName : filteredFileNames) {
-			fileList.add(new File(directory, fileName));
+			if (isIncluded(fileName)) {
+				fileList.add(new File(directory, fileName));
+			}
 		}
 		return fileList;
 	}
@@ -29,15 +229,136 @@ public final class EarFilter {
 
 		final MavenArchiveID id = new MavenArchiveID();
 		for (final String name : names) {
-			if (id.isApplicable(name)) {
-				final ArchiveID currentEntry = id.parse(name);
-				if (currentEntry.getType() == ArchiveType.EAR) {
-					sortable.add(name);
-				}
+			final ArchiveID currentEntry = id.tryParse(name);
+			if (currentEntry != null && currentEntry.getType() == ArchiveType.EAR) {
+				sortable.add(name);
 			}
 		}
 
 		Collections.sort(sortable);
 		return sortable;
 	}
+
+	/**
+	 * Finds the EARs in the given directories and all their subdirectories, reading several directories at once,
+	 * which pays off where reading a directory mostly means waiting, e.g. on network file systems. EARs are returned
+	 * as soon as they are found, so they can be parsed while the search goes on. The EARs of each directory come in
+	 * name order, but those of directories read at the same time are interleaved as their reads happen to progress.
+	 * The search threads stop by themselves at the end of the search; stop them earlier by closing the walk.
+	 *
+	 * @param concurrentReads
+	 *            maximum number of directories read at the same time
+	 * @return an iterator that blocks until the next EAR is found or the search is over, and throws any exception
+	 *         the search ended with
+	 */
+	public EarWalk walkEarFiles(final Collection<File> roots, final int concurrentReads) {
+		if (concurrentReads < 1) {
+			throw new IllegalArgumentException("concurrentReads must be at least 1, but is " + concurrentReads);
+		}
+		return new Walk(roots, concurrentReads);
+	}
+
+	private boolean isIncluded(final String path) {
+		return (includes.isEmpty() || matchesAny(includes, path)) && !matchesAny(excludes, path);
+	}
+
+	private static boolean matchesAny(final List<Pattern> patterns, final String path) {
+		for (final Pattern pattern : patterns) {
+			if (pattern.matcher(path).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<Pattern> compileGlobs(final String... globs) {
+		final List<Pattern> patterns = new ArrayList<Pattern>(globs.length);
+		for (final String glob : globs) {
+			patterns.add(compileGlob(glob));
+		}
+		return patterns;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the glob is malformed, e.g. has an unbalanced '{' or '['
+	 */
+	static Pattern compileGlob(final String glob) {
+		final StringBuilder regex = new StringBuilder();
+		if (glob.indexOf('/') < 0) {
+			// match names in any directory
+			regex.append("(?:.*/)?");
+		}
+
+		boolean inAlternatives = false;
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			switch (c) {
+			case '*':
+				if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+						regex.append("(?:.*/)?");
+						i += 2;
+					} else {
+						regex.append(".*");
+						i++;
+					}
+				} else {
+					regex.append("[^/]*");
+				}
+				break;
+			case '?':
+				regex.append("[^/]");
+				break;
+			case '[':
+				final int close = glob.indexOf(']', i + 2);
+				if (close < 0) {
+					throw new IllegalArgumentException("unclosed '[' at position " + i + " of glob " + glob);
+				}
+				final String chars = glob.substring(i + 1, close);
+				regex.append('[');
+				regex.append(chars.charAt(0) == '!' ? "^" + quoteClass(chars.substring(1)) : quoteClass(chars));
+				regex.append(']');
+				i = close;
+				break;
+			case '{':
+				if (inAlternatives) {
+					throw new IllegalArgumentException("nested '{' at position " + i + " of glob " + glob);
+				}
+				regex.append("(?:");
+				inAlternatives = true;
+				break;
+			case '}':
+				if (!inAlternatives) {
+					throw new IllegalArgumentException("unopened '}' at position " + i + " of glob " + glob);
+				}
+				regex.append(')');
+				inAlternatives = false;
+				break;
+			case ',':
+				regex.append(inAlternatives ? "|" : ",");
+				break;
+			default:
+				if (Character.isLetterOrDigit(c) || c == '/' || c == '-' || c == '_') {
+					regex.append(c);
+				} else {
+					regex.append('\\').append(c);
+				}
+			}
+		}
+		if (inAlternatives) {
+			throw new IllegalArgumentException("unclosed '{' in glob " + glob);
+		}
+		try {
+			return Pattern.compile(regex.toString());
+		} catch (final PatternSyntaxException e) {
+			throw new IllegalArgumentException("invalid glob " + glob + ": " + e.getDescription(), e);
+		}
+	}
+
+	private static String quoteClass(final String chars) {
+		return chars.replace("\\", "\\\\").replace("[", "\\[").replace("]", "\\]").replace("&", "\\&")
+				.replace("^", "\\^");
+	}
+
 }
@@ -0,0 +1,105 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.ArchiveFileFactory;
+import net.e175.klaus.archiveparser.id.ArchiveID;
+
+/**
+ * Result of parsing a set of EARs, as created by {@link EarJarParser#analyze(List)}. Besides the parsed archives and
+ * the JAR to EAR map, it remembers size and modification time of each EAR, so it can be brought up to date by
+ * {@link EarJarParser#update(EarJarAnalysis, List)} re-parsing only the EARs that changed.
+ */
+public final class EarJarAnalysis {
+
+	static final class Stamp {
+		private final long length;
+		private final long lastModified;
+
+		Stamp(final File file) {
+			length = file.length();
+			lastModified = file.lastModified();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof Stamp && ((Stamp) obj).length == length && ((Stamp) obj).lastModified == lastModified;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (length ^ lastModified);
+		}
+	}
+
+	private final Map<File, Stamp> stamps = new HashMap<File, Stamp>();
+	private final Map<File, ArchiveFile> archivesByFile = new HashMap<File, ArchiveFile>();
+	private final List<ArchiveFile> archives = new ArrayList<ArchiveFile>();
+	private final Map<ArchiveID, List<ArchiveFile>> jarEarMap;
+	private final ArchiveFileFactory archiveFactory;
+
+	EarJarAnalysis(final Map<File, Stamp> stamps, final List<File> files, final List<ArchiveFile> archives,
+			final Map<ArchiveID, List<ArchiveFile>> jarEarMap, final ArchiveFileFactory archiveFactory) {
+		this.jarEarMap = jarEarMap;
+		this.archiveFactory = archiveFactory;
+		replaceArchives(stamps, files, archives);
+	}
+
+	/** @return current size and modification time of the files, to be taken before parsing them */
+	static Map<File, Stamp> stamp(final Collection<File> files) {
+		final Map<File, Stamp> stamps = new HashMap<File, Stamp>();
+		for (final File file : files) {
+			stamps.put(file, new Stamp(file));
+		}
+		return stamps;
+	}
+
+	/** @return parsed EARs, in the order of the files given */
+	public List<ArchiveFile> getArchives() {
+		return Collections.unmodifiableList(archives);
+	}
+
+	/** @return unversioned JAR IDs mapped to the EARs containing them, see {@link EarJarParser#getJarEarIdMap} */
+	public Map<ArchiveID, List<ArchiveFile>> getJarEarMap() {
+		return Collections.unmodifiableMap(jarEarMap);
+	}
+
+	Map<ArchiveID, List<ArchiveFile>> jarEarMap() {
+		return jarEarMap;
+	}
+
+	ArchiveFileFactory archiveFactory() {
+		return archiveFactory;
+	}
+
+	/** @return the archive parsed from the file, if it is known and its stamp is unchanged since then */
+	ArchiveFile upToDateArchiveFor(final File file, final Stamp current) {
+		final Stamp stamp = stamps.get(file);
+		return stamp != null && stamp.equals(current) ? archivesByFile.get(file) : null;
+	}
+
+	Map<File, ArchiveFile> archivesByFile() {
+		return Collections.unmodifiableMap(archivesByFile);
+	}
+
+	void replaceArchives(final Map<File, Stamp> newStamps, final List<File> files, final List<ArchiveFile> newArchives) {
+		assert files.size() == newArchives.size();
+
+		stamps.clear();
+		stamps.putAll(newStamps);
+		archivesByFile.clear();
+		archives.clear();
+		for (int i = 0; i < files.size(); i++) {
+			archivesByFile.put(files.get(i), newArchives.get(i));
+			archives.add(newArchives.get(i));
+		}
+	}
+
+}
@@ -1,55 +1,330 @@
 package net.e175.klaus.archiveparser.report;
 
 import java.io.File;
-import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 import net.e175.klaus.archiveparser.core.ArchiveFile;
 import net.e175.klaus.archiveparser.core.ArchiveFileFactory;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.ContainmentGraph;
+import net.e175.klaus.archiveparser.core.EntryScanner;
+import net.e175.klaus.archiveparser.core.TrueZipArchiveScanner;
 import net.e175.klaus.archiveparser.core.UniqueJarFactory;
 import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveIDComparator;
+import net.e175.klaus.archiveparser.id.ArchiveIDPool;
 import net.e175.klaus.archiveparser.id.ArchiveIDProvider;
 import net.e175.klaus.archiveparser.id.MavenArchiveID;
 import net.e175.klaus.archiveparser.id.MavenArchiveIDProvider;
+import net.e175.klaus.archiveparser.metrics.MeasuringArchiveIDProvider;
+import net.e175.klaus.archiveparser.metrics.MeasuringArchiveScanner;
+import net.e175.klaus.archiveparser.metrics.MetricsListener;
+import net.e175.klaus.archiveparser.metrics.Phase;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public final class EarJarParser {
 
-	private final ArchiveIDProvider defaultIDProvider = new MavenArchiveIDProvider();
+	/** shares the IDs of archives found in several EARs, and their names and versions */
+	private final ArchiveIDPool idPool = new ArchiveIDPool();
 
-	private static final class ArchiveIDComparator implements Comparator<ArchiveID>, Serializable {
-		private static final long serialVersionUID = 1L;
+	private final ArchiveIDProvider defaultIDProvider = new MavenArchiveIDProvider(idPool);
 
-		@Override
-		public int compare(final ArchiveID o1, final ArchiveID o2) {
-			return o1.toString().compareTo(o2.toString());
+	/** number of archives parsed concurrently by parseFiles; 1 means serial parsing in the calling thread */
+	private final int parallelism;
+
+	private ArchiveScanner archiveScanner = new TrueZipArchiveScanner();
+
+	private UniqueJarFactory.JarIdentity jarIdentity = UniqueJarFactory.JarIdentity.NAME;
+
+	private int maxDepth = ArchiveFile.UNLIMITED_DEPTH;
+
+	private boolean lazy;
+
+	private boolean indexEntries;
+
+	/** number of archives parsed at once by virtual threads, or 0 to use platform threads */
+	private int maxOpenArchives;
+
+	private MetricsListener metricsListener;
+
+	/** archiveScanner and defaultIDProvider, reporting to the metricsListener if there is one */
+	private ArchiveScanner scanner = archiveScanner;
+	private ArchiveIDProvider idProvider = defaultIDProvider;
+
+	private static final Logger LOG = LoggerFactory.getLogger(EarJarParser.class);
+
+	public EarJarParser() {
+		this(1);
+	}
+
+	public EarJarParser(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1, but is " + parallelism);
 		}
+		this.parallelism = parallelism;
 	}
 
-	private static final Logger LOG = LoggerFactory.getLogger(EarJarParser.class);
+	/**
+	 * @param archiveScanner
+	 *            how to find archives in archives, by default TrueZIP
+	 */
+	public void setArchiveScanner(final ArchiveScanner archiveScanner) {
+		this.archiveScanner = archiveScanner;
+		instrument();
+		checkEntriesCanBeIndexed();
+	}
+
+	/**
+	 * @param jarIdentity
+	 *            how to tell whether JARs in different archives are the same, by default by name
+	 */
+	public void setJarIdentity(final UniqueJarFactory.JarIdentity jarIdentity) {
+		this.jarIdentity = jarIdentity;
+	}
+
+	/**
+	 * @param maxDepth
+	 *            how many levels of archives to open, by default all. 1 finds the archives in the EAR root and in
+	 *            its WARs' WEB-INF/lib, but doesn't look into them.
+	 */
+	public void setMaxDepth(final int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * @param lazy
+	 *            whether parseFiles should only create archives from file names and leave parsing them to the first
+	 *            call to ArchiveFile.contains(). Parsed archives are then not frozen, see ContainmentGraph.
+	 */
+	public void setLazy(final boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	/**
+	 * @param indexEntries
+	 *            whether to keep the names of the files in each JAR, see ArchiveFile.getEntries() and EntryIndex.
+	 *            Needs an archive scanner that can list them, like CentralDirectoryScanner.
+	 */
+	public void setIndexEntries(final boolean indexEntries) {
+		this.indexEntries = indexEntries;
+		checkEntriesCanBeIndexed();
+	}
+
+	private void checkEntriesCanBeIndexed() {
+		if (indexEntries && !(scanner instanceof EntryScanner)) {
+			LOG.warn("{} cannot list entries, so none will be indexed", archiveScanner.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Parses each archive in a virtual thread of its own instead of using a pool of platform threads, which pays off
+	 * where parsing is mostly waiting for reads, e.g. on network file systems. On JVMs without virtual threads, a pool
+	 * of maxOpenArchives platform threads is used instead.
+	 * <p>
+	 * Only top-level archives get threads of their own: the archives nested in one are still read one after the
+	 * other by its thread, because scanners (TrueZIP in particular) and their metrics expect to see each archive
+	 * tree from a single thread.
+	 *
+	 * @param maxOpenArchives
+	 *            number of archives parsed (and so of files held open) at the same time, replacing the parallelism;
+	 *            0 (the default) to use a pool of platform threads of the size given by the parallelism
+	 */
+	public void setVirtualThreads(final int maxOpenArchives) {
+		if (maxOpenArchives < 0) {
+			throw new IllegalArgumentException("maxOpenArchives must not be negative, but is " + maxOpenArchives);
+		}
+		this.maxOpenArchives = maxOpenArchives;
+	}
+
+	/** @return number of archives parsed at the same time, see setVirtualThreads */
+	int getConcurrency() {
+		return maxOpenArchives > 0 ? maxOpenArchives : parallelism;
+	}
+
+	/** @return whether this JVM has virtual threads, see setVirtualThreads */
+	public static boolean isVirtualThreadsAvailable() {
+		return VirtualThreads.isAvailable();
+	}
+
+	/** @return virtual thread factory if they are to be used and available, otherwise null */
+	ThreadFactory virtualThreadFactory(final String prefix) {
+		if (maxOpenArchives == 0) {
+			return null;
+		}
+		final ThreadFactory factory = VirtualThreads.factory(prefix);
+		if (factory == null) {
+			LOG.warn("virtual threads are not available, using {} platform threads", maxOpenArchives);
+		}
+		return factory;
+	}
+
+	/**
+	 * @param metricsListener
+	 *            told how long scanning, identifying, parsing and indexing archives takes, or null (the default) to
+	 *            measure nothing
+	 */
+	public void setMetricsListener(final MetricsListener metricsListener) {
+		this.metricsListener = metricsListener;
+		instrument();
+	}
+
+	/** @return the listener set by setMetricsListener, if any */
+	public MetricsListener getMetricsListener() {
+		return metricsListener;
+	}
+
+	private void instrument() {
+		if (metricsListener == null) {
+			scanner = archiveScanner;
+			idProvider = defaultIDProvider;
+		} else {
+			scanner = MeasuringArchiveScanner.of(archiveScanner, metricsListener);
+			idProvider = new MeasuringArchiveIDProvider(defaultIDProvider, metricsListener);
+		}
+	}
+
+	UniqueJarFactory createArchiveFactory() {
+		final UniqueJarFactory archiveFactory = new UniqueJarFactory(scanner, jarIdentity);
+		archiveFactory.setMetricsListener(metricsListener);
+		archiveFactory.setIndexEntries(indexEntries);
+		return archiveFactory;
+	}
+
+	/** @return pool of IDs of the archives parsed so far, which may be cleared between independent runs */
+	public ArchiveIDPool getArchiveIDPool() {
+		return idPool;
+	}
 
 	public List<ArchiveFile> parseFiles(final Collection<File> files) {
+		return parseFiles(files.iterator(), files.size());
+	}
+
+	/**
+	 * Like parseFiles(files), but parses files as they come, without waiting for all of them to be known, e.g. while
+	 * {@link EarFilter#walkEarFiles(Collection, int)} is still looking for more.
+	 */
+	public List<ArchiveFile> parseFiles(final Iterator<File> files) {
+		return parseFiles(files, Integer.MAX_VALUE);
+	}
+
+	private List<ArchiveFile> parseFiles(final Iterator<File> files, final int maxFiles) {
+		final List<ArchiveFile> archives = new ArrayList<ArchiveFile>();
+		final UniqueJarFactory archiveFactory = createArchiveFactory();
+
+		parseFiles(files, maxFiles, archiveFactory, collectInto(archives));
+		finish(archiveFactory, archives);
+		return archives;
+	}
+
+	/**
+	 * Like parseFiles(files), but passes the archives to the sink instead of collecting them. Once all files are
+	 * parsed, the archives are frozen like those of parseFiles(files), so the sink must not pass them on to other
+	 * threads still reading them then.
+	 */
+	public void parseFiles(final Collection<File> files, final ArchiveSink sink) {
+		parseFiles(files.iterator(), files.size(), sink);
+	}
+
+	/** like parseFiles(files, sink), but parses files as they come, see parseFiles(Iterator) */
+	public void parseFiles(final Iterator<File> files, final ArchiveSink sink) {
+		parseFiles(files, Integer.MAX_VALUE, sink);
+	}
+
+	private void parseFiles(final Iterator<File> files, final int maxFiles, final ArchiveSink sink) {
+		final UniqueJarFactory archiveFactory = createArchiveFactory();
 		final List<ArchiveFile> archives = new ArrayList<ArchiveFile>();
-		final ArchiveFileFactory archiveFactory = new UniqueJarFactory();
 
-		return parseFiles(files, archives, archiveFactory);
+		parseFiles(files, maxFiles, archiveFactory, collectInto(archives, sink));
+		finish(archiveFactory, archives);
+	}
+
+	/**
+	 * Logs how well JARs were deduplicated and freezes the parsed archives, unless they are lazy. Nobody else may read
+	 * the archives while they are frozen.
+	 */
+	void finish(final UniqueJarFactory archiveFactory, final List<ArchiveFile> archives) {
+		if (!lazy) {
+			LOG.info("JAR deduplication: {}", archiveFactory.getStatistics());
+			freeze(archives);
+		}
 	}
 
 	public List<ArchiveFile> parseFiles(final Collection<File> files, final List<ArchiveFile> archives,
 			final ArchiveFileFactory archiveFactory) {
+		parseFiles(files, archiveFactory, collectInto(archives));
+		return archives;
+	}
+
+	private static ArchiveSink collectInto(final List<ArchiveFile> archives) {
+		return collectInto(archives, null);
+	}
+
+	/** @return sink collecting the archives before passing them on to the next sink, if any */
+	static ArchiveSink collectInto(final List<ArchiveFile> archives, final ArchiveSink next) {
+		return new ArchiveSink() {
+			@Override
+			public void accept(final File file, final ArchiveFile archive) {
+				archives.add(archive);
+				if (next != null) {
+					next.accept(file, archive);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Parses the files and passes each archive to the sink as soon as it and all files before it have been parsed, in
+	 * the calling thread. Apart from the archives parsed concurrently, nothing is kept, so the sink can process any
+	 * number of files with bounded memory. Note that archives shared by the factory still reference all archives
+	 * containing them.
+	 */
+	public void parseFiles(final Collection<File> files, final ArchiveFileFactory archiveFactory,
+			final ArchiveSink sink) {
+		parseFiles(files.iterator(), files.size(), archiveFactory, sink);
+	}
 
-		for (final File f : files) {
-			parseFile(f, archives, archiveFactory);
+	/**
+	 * Parses the files like parseFiles(files, archiveFactory, sink), which is what all other parseFiles methods and
+	 * Pipeline do, too.
+	 *
+	 * @param maxFiles
+	 *            upper bound of the number of files, to avoid starting more threads than needed
+	 */
+	void parseFiles(final Iterator<File> files, final int maxFiles, final ArchiveFileFactory archiveFactory,
+			final ArchiveSink sink) {
+		final int threads = Math.min(getConcurrency(), maxFiles);
+		if (threads > 1 && !lazy) {
+			parseFilesConcurrently(files, threads, archiveFactory, sink);
+			return;
 		}
 
-		return archives;
+		while (files.hasNext()) {
+			final File f = files.next();
+			sink.accept(f, parseArchive(f, archiveFactory));
+		}
 	}
 
 	public List<ArchiveFile> parseFile(final File file, final List<ArchiveFile> archives,
@@ -57,31 +332,225 @@ public final class EarJarParser {
 		assert file != null;
 		assert archives != null;
 
-		LOG.info("parsing {}", file);
-		final ArchiveFile a = new ArchiveFile(file, defaultIDProvider, archiveFactory);
-		archives.add(a);
+		archives.add(parseArchive(file, archiveFactory));
 		return archives;
 	}
 
-	public Map<ArchiveID, List<ArchiveFile>> getJarEarIdMap(final Collection<ArchiveFile> parsedArchives) {
-		final Map<ArchiveID, List<ArchiveFile>> jarEarIdMap = new TreeMap<ArchiveID, List<ArchiveFile>>(
-				new ArchiveIDComparator());
+	ArchiveFile parseArchive(final File file, final ArchiveFileFactory archiveFactory) {
+		LOG.info(lazy ? "found {}" : "parsing {}", file);
+		if (metricsListener == null) {
+			return new ArchiveFile(file, idProvider, archiveFactory, scanner, maxDepth, lazy, indexEntries);
+		}
 
-		for (final ArchiveFile ear : parsedArchives) {
-			for (final ArchiveFile jar : ear.contains()) {
-				final ArchiveID jarId = jar.getArchiveID();
-				final ArchiveID unversionedJarId = new MavenArchiveID(jarId.getName(), "*", jarId.getType());
+		final long start = System.nanoTime();
+		final ArchiveFile archive = new ArchiveFile(file, idProvider, archiveFactory, scanner, maxDepth, lazy,
+				indexEntries);
+		metricsListener.completed(Phase.PARSE, file, 0, System.nanoTime() - start, file.length());
+		return archive;
+	}
+
+	/**
+	 * Parses the files using a bounded pool of worker threads, or a virtual thread per file with as many parsed at
+	 * once, with at most twice as many files in progress as that. Results are passed on in the iteration order of
+	 * files, just like in the serial case.
+	 */
+	private void parseFilesConcurrently(final Iterator<File> files, final int threads,
+			final ArchiveFileFactory archiveFactory, final ArchiveSink sink) {
+		final ThreadFactory virtualThreads = virtualThreadFactory("parse-");
+		final ExecutorService executor = virtualThreads == null ? Executors.newFixedThreadPool(threads) : Executors
+				.newCachedThreadPool(virtualThreads);
+		// virtual threads are not pooled, so limit how many archives they open at once
+		final Semaphore openArchives = new Semaphore(threads);
+		try {
+			final Queue<Future<ArchiveFile>> pending = new ArrayDeque<Future<ArchiveFile>>(2 * threads);
+			final Queue<File> pendingFiles = new ArrayDeque<File>(2 * threads);
+			while (files.hasNext() || !pending.isEmpty()) {
+				while (files.hasNext() && pending.size() < 2 * threads) {
+					final File f = files.next();
+					pendingFiles.add(f);
+					pending.add(executor.submit(new Callable<ArchiveFile>() {
+						@Override
+						public ArchiveFile call() throws InterruptedException {
+							openArchives.acquire();
+							try {
+								return parseArchive(f, archiveFactory);
+							} finally {
+								openArchives.release();
+							}
+						}
+					}));
+				}
+				final ArchiveFile archive = pending.remove().get();
+				sink.accept(pendingFiles.remove(), archive);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while parsing archives", e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("failed to parse archives", cause);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Parses all files and maps JARs to EARs, like parseFiles and getJarEarIdMap, but keeps everything needed to
+	 * update the result incrementally later.
+	 */
+	public EarJarAnalysis analyze(final List<File> files) {
+		final Map<File, EarJarAnalysis.Stamp> stamps = EarJarAnalysis.stamp(files);
+		final UniqueJarFactory archiveFactory = createArchiveFactory();
+		final List<ArchiveFile> archives = parseFiles(files, new ArrayList<ArchiveFile>(), archiveFactory);
+		freeze(archives);
+		return new EarJarAnalysis(stamps, files, archives, getJarEarIdMap(archives), archiveFactory);
+	}
+
+	/**
+	 * Brings a previous analysis up to date with the given files, which are usually the current result of
+	 * EarFilter.filterEarFiles. Only new and modified files are parsed, and the JAR to EAR map is updated in place.
+	 * The result is the same as that of analyze(files), except that the order of ArchiveFile.containedIn() may
+	 * differ.
+	 * <p>
+	 * This is meant for long-running processes that keep the analysis in memory. Report runs once per invocation
+	 * and so doesn't offer it; to save parsing unchanged archives across its runs, use its parse cache instead.
+	 */
+	public EarJarAnalysis update(final EarJarAnalysis analysis, final List<File> files) {
+		final Map<File, EarJarAnalysis.Stamp> stamps = EarJarAnalysis.stamp(files);
+
+		final Set<File> changedFiles = new LinkedHashSet<File>();
+		for (final File file : files) {
+			if (analysis.upToDateArchiveFor(file, stamps.get(file)) == null) {
+				changedFiles.add(file);
+			}
+		}
+
+		final Set<File> keptFiles = new HashSet<File>(files);
+		keptFiles.removeAll(changedFiles);
+		final Map<ArchiveID, List<ArchiveFile>> jarEarIdMap = analysis.jarEarMap();
+		int removed = 0;
+		for (final Map.Entry<File, ArchiveFile> previous : analysis.archivesByFile().entrySet()) {
+			if (!keptFiles.contains(previous.getKey())) {
+				removeFromJarEarIdMap(jarEarIdMap, previous.getValue());
+				previous.getValue().detach();
+				removed++;
+			}
+		}
+
+		final List<ArchiveFile> parsed = parseFiles(new ArrayList<File>(changedFiles), new ArrayList<ArchiveFile>(),
+				analysis.archiveFactory());
+		final Map<File, ArchiveFile> parsedByFile = new HashMap<File, ArchiveFile>();
+		final Iterator<ArchiveFile> parsedArchives = parsed.iterator();
+		for (final File file : changedFiles) {
+			parsedByFile.put(file, parsedArchives.next());
+		}
+
+		final List<ArchiveFile> archives = new ArrayList<ArchiveFile>(files.size());
+		for (final File file : files) {
+			final ArchiveFile archive = parsedByFile.get(file);
+			archives.add(archive != null ? archive : analysis.archivesByFile().get(file));
+		}
+
+		addToJarEarIdMap(jarEarIdMap, parsed, archives);
+		analysis.replaceArchives(stamps, files, archives);
+		freeze(archives);
+
+		LOG.info("updated analysis: {} archives parsed, {} removed or replaced, {} unchanged", new Object[] {
+				parsed.size(), removed, keptFiles.size() });
+		return analysis;
+	}
+
+	/** replaces the per-archive lists of the parsed archives and everything they contain by a compact graph */
+	private static void freeze(final List<ArchiveFile> archives) {
+		final ContainmentGraph graph = ContainmentGraph.freeze(archives);
+		LOG.info("froze {} archives with {} containment relations", graph.size(), graph.edgeCount());
+	}
+
+	private static void removeFromJarEarIdMap(final Map<ArchiveID, List<ArchiveFile>> jarEarIdMap,
+			final ArchiveFile ear) {
+		for (final ArchiveFile jar : ear.contains()) {
+			final ArchiveID unversionedJarId = unversioned(jar.getArchiveID());
+			final List<ArchiveFile> ears = jarEarIdMap.get(unversionedJarId);
+			if (ears != null) {
+				for (final Iterator<ArchiveFile> it = ears.iterator(); it.hasNext();) {
+					if (it.next() == ear) {
+						it.remove();
+					}
+				}
+				if (ears.isEmpty()) {
+					jarEarIdMap.remove(unversionedJarId);
+				}
+			}
+		}
+	}
+
+	/** adds the new EARs, keeping each list in the same order as allEars */
+	private static void addToJarEarIdMap(final Map<ArchiveID, List<ArchiveFile>> jarEarIdMap,
+			final List<ArchiveFile> newEars, final List<ArchiveFile> allEars) {
+		final Map<ArchiveFile, Integer> positions = new IdentityHashMap<ArchiveFile, Integer>();
+		for (int i = 0; i < allEars.size(); i++) {
+			positions.put(allEars.get(i), i);
+		}
 
+		final Set<List<ArchiveFile>> touched = Collections.newSetFromMap(new IdentityHashMap<List<ArchiveFile>, Boolean>());
+		for (final ArchiveFile ear : newEars) {
+			// lists this EAR was added to; new EARs are in no list yet, but may contain several versions of a JAR
+			final Set<List<ArchiveFile>> addedTo = Collections.newSetFromMap(new IdentityHashMap<List<ArchiveFile>,
+					Boolean>());
+			for (final ArchiveFile jar : ear.contains()) {
+				final ArchiveID unversionedJarId = unversioned(jar.getArchiveID());
 				List<ArchiveFile> ears = jarEarIdMap.get(unversionedJarId);
 				if (ears == null) {
 					ears = new ArrayList<ArchiveFile>();
+					jarEarIdMap.put(unversionedJarId, ears);
 				}
-				if (!ears.contains(ear)) {
+				if (addedTo.add(ears)) {
 					ears.add(ear);
+					touched.add(ears);
 				}
-				jarEarIdMap.put(unversionedJarId, ears);
 			}
 		}
+
+		final Comparator<ArchiveFile> byPosition = new Comparator<ArchiveFile>() {
+			@Override
+			public int compare(final ArchiveFile o1, final ArchiveFile o2) {
+				return positions.get(o1).compareTo(positions.get(o2));
+			}
+		};
+		for (final List<ArchiveFile> ears : touched) {
+			Collections.sort(ears, byPosition);
+		}
+	}
+
+	private static ArchiveID unversioned(final ArchiveID jarId) {
+		return new MavenArchiveID(jarId.getName(), "*", jarId.getType());
+	}
+
+	/**
+	 * @return unversioned JAR IDs mapped to the EARs containing them, in the order of parsedArchives
+	 * @see JarEarIndex
+	 */
+	public Map<ArchiveID, List<ArchiveFile>> getJarEarIdMap(final Collection<ArchiveFile> parsedArchives) {
+		final long start = System.nanoTime();
+		final Map<ArchiveID, List<ArchiveFile>> jarEarIdMap = getJarEarIdMap(new JarEarIndex(parsedArchives));
+		if (metricsListener != null) {
+			metricsListener.completed(Phase.INDEX, null, -1, System.nanoTime() - start, 0);
+		}
+		return jarEarIdMap;
+	}
+
+	Map<ArchiveID, List<ArchiveFile>> getJarEarIdMap(final JarEarIndex index) {
+		final Map<ArchiveID, List<ArchiveFile>> jarEarIdMap = new TreeMap<ArchiveID, List<ArchiveFile>>(
+				ArchiveIDComparator.INSTANCE);
+
+		for (final ArchiveID unversionedJarId : index.getJarIds()) {
+			jarEarIdMap.put(unversionedJarId, new ArrayList<ArchiveFile>(index.getEars(unversionedJarId)));
+		}
 		return jarEarIdMap;
 	}
 
@@ -5,12 +5,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import net.e175.klaus.archiveparser.core.ArchiveFile;
 import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.metrics.MetricsListener;
+import net.e175.klaus.archiveparser.metrics.Phase;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.ClientAnchor;
@@ -20,38 +21,134 @@ import org.apache.poi.ss.usermodel.RichTextString;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-public final class EarJarSpreadsheet {
+public final class EarJarSpreadsheet implements ArchiveSink {
 	private Collection<ArchiveFile> archives;
-	private Map<ArchiveID, List<ArchiveFile>> jarEarMap;
+	private JarEarIndex jarEarIndex;
+	private EarJarAnalysis analysis;
+	private final int parallelism;
+
+	public EarJarSpreadsheet() {
+		this(1);
+	}
+
+	/**
+	 * @param parallelism
+	 *            number of EARs to parse concurrently
+	 */
+	public EarJarSpreadsheet(final int parallelism) {
+		this.parallelism = parallelism;
+	}
 
 	public void analyze(final File sourceFolder, final EarFilter filter) {
+		analyze(sourceFolder, filter, new EarJarParser(parallelism));
+	}
+
+	public void analyze(final File sourceFolder, final EarFilter filter, final EarJarParser parser) {
 		assert sourceFolder.isDirectory();
 
-		final Collection<File> ears = filter.filterEarFiles(sourceFolder);
+		final Collection<File> ears = listEars(sourceFolder, filter, parser.getMetricsListener());
 
-		final EarJarParser parser = new EarJarParser();
 		archives = parser.parseFiles(ears);
-		jarEarMap = parser.getJarEarIdMap(archives);
+		index(parser.getMetricsListener());
+	}
+
+	/** Like analyze, but parses EARs as they come, e.g. from {@link EarFilter#walkEarFiles(Collection, int)}. */
+	public void analyze(final Iterator<File> ears, final EarJarParser parser) {
+		archives = parser.parseFiles(ears);
+		index(parser.getMetricsListener());
+	}
+
+	/** Adds an archive to the analysis, for analyzing archives one by one, e.g. in a Pipeline. */
+	@Override
+	public void accept(final File file, final ArchiveFile archive) {
+		if (archives == null) {
+			archives = new ArrayList<ArchiveFile>();
+			jarEarIndex = new JarEarIndex();
+		}
+		archives.add(archive);
+		jarEarIndex.add(archive);
+	}
+
+	/**
+	 * Like analyze, but if this spreadsheet has been analyzed incrementally before, only EARs that are new or were
+	 * modified since then are parsed.
+	 */
+	public void analyzeIncrementally(final File sourceFolder, final EarFilter filter, final EarJarParser parser) {
+		assert sourceFolder.isDirectory();
+
+		final List<File> ears = listEars(sourceFolder, filter, parser.getMetricsListener());
+
+		analysis = analysis == null ? parser.analyze(ears) : parser.update(analysis, ears);
+		archives = analysis.getArchives();
+		index(parser.getMetricsListener());
+	}
+
+	private static List<File> listEars(final File sourceFolder, final EarFilter filter,
+			final MetricsListener metricsListener) {
+		final long start = System.nanoTime();
+		final List<File> ears = filter.filterEarFiles(sourceFolder);
+		if (metricsListener != null) {
+			metricsListener.completed(Phase.LIST, null, -1, System.nanoTime() - start, 0);
+		}
+		return ears;
+	}
+
+	private void index(final MetricsListener metricsListener) {
+		final long start = System.nanoTime();
+		jarEarIndex = new JarEarIndex(archives);
+		if (metricsListener != null) {
+			metricsListener.completed(Phase.INDEX, null, -1, System.nanoTime() - start, 0);
+		}
 	}
 
 	public void createWorkbook(final File targetFile) throws IOException {
 		final Workbook book = new XSSFWorkbook();
 
+		createSheets(book, true);
+		write(book, targetFile);
+	}
+
+	/**
+	 * Creates the same workbook as createWorkbook, but keeps only a window of rows per sheet in memory and flushes
+	 * older ones to temporary files, so memory use doesn't grow with the number of rows. Cell comments would be held in
+	 * memory until the workbook is written, so the concrete JAR versions go to a cell right of each using EAR instead.
+	 * 
+	 * @param rowWindow
+	 *            number of rows to keep in memory per sheet
+	 */
+	public void createStreamingWorkbook(final File targetFile, final int rowWindow) throws IOException {
+		final SXSSFWorkbook book = new SXSSFWorkbook(rowWindow);
+		book.setCompressTempFiles(true);
+		try {
+			createSheets(book, false);
+			write(book, targetFile);
+		} finally {
+			book.dispose();
+		}
+	}
+
+	private void createSheets(final Workbook book, final boolean versionsAsComments) {
 		createEarJarSheet(book);
-		createJarEarSheet(book);
+		createJarEarSheet(book, versionsAsComments);
 		createJarUsageFrequencySheet(book);
+	}
 
+	private static void write(final Workbook book, final File targetFile) throws IOException {
 		final FileOutputStream fileOut = new FileOutputStream(targetFile);
-		book.write(fileOut);
-		fileOut.close();
+		try {
+			book.write(fileOut);
+		} finally {
+			fileOut.close();
+		}
 	}
 
 	private void createEarJarSheet(final Workbook book) {
 		final Sheet earSheet = book.createSheet("EARs with contained JARs");
 		int rowCount = 0;
-		int maxColumn = 0;
+		final ColumnWidths widths = new ColumnWidths();
 
 		for (final ArchiveFile archive : archives) {
 			final Row row = earSheet.createRow(rowCount++);
@@ -60,110 +157,97 @@ public final class EarJarSpreadsheet {
 			Cell cell = row.createCell(cellCount++);
 			String archiveName = archive.getArchiveID().toString();
 			cell.setCellValue(archiveName);
+			widths.update(cell.getColumnIndex(), archiveName);
 
 			for (final ArchiveFile contained : archive.contains()) {
 				cell = row.createCell(cellCount++);
 				archiveName = contained.getArchiveID().toString();
 				cell.setCellValue(archiveName);
-				if (cellCount > maxColumn) {
-					maxColumn = cellCount;
-				}
+				widths.update(cell.getColumnIndex(), archiveName);
 			}
 		}
 
-		adjustColumns(earSheet, maxColumn);
+		widths.applyTo(earSheet);
 	}
 
-	private void createJarEarSheet(final Workbook book) {
+	private void createJarEarSheet(final Workbook book, final boolean versionsAsComments) {
 		final Sheet jarSheet = book.createSheet("JARs with using EARs");
 
 		int rowCount = 0;
-		int maxColumn = 0;
+		final ColumnWidths widths = new ColumnWidths();
 
 		final ClientAnchor anchor = book.getCreationHelper().createClientAnchor();
-		final Drawing drawing = jarSheet.createDrawingPatriarch();
+		final Drawing drawing = versionsAsComments ? jarSheet.createDrawingPatriarch() : null;
 
-		for (final Entry<ArchiveID, List<ArchiveFile>> jarEntry : jarEarMap.entrySet()) {
+		for (final ArchiveID jarID : jarEarIndex.getJarIds()) {
 			final Row row = jarSheet.createRow(rowCount++);
 
 			int cellCount = 0;
 			final Cell jarCell = row.createCell(cellCount++);
-			final ArchiveID jarID = jarEntry.getKey();
 			final String archiveName = jarID.toString();
 			jarCell.setCellValue(archiveName);
+			widths.update(jarCell.getColumnIndex(), archiveName);
 
-			for (final ArchiveFile ear : jarEntry.getValue()) {
+			for (final ArchiveFile ear : jarEarIndex.getEars(jarID)) {
 				final Cell earCell = row.createCell(cellCount++);
-				earCell.setCellValue(ear.toString());
-				if (cellCount > maxColumn) {
-					maxColumn = cellCount;
-				}
+				final String earName = ear.toString();
+				earCell.setCellValue(earName);
+				widths.update(earCell.getColumnIndex(), earName);
 
-				final Collection<ArchiveFile> concreteJars = getMatchingJarsInEar(jarID, ear);
+				final Collection<ArchiveFile> concreteJars = jarEarIndex.getVersions(jarID, ear);
 
-				final StringBuilder commentString = new StringBuilder();
+				final StringBuilder versions = new StringBuilder();
 				for (final ArchiveFile concreteJar : concreteJars) {
-					commentString.append(concreteJar).append(" ");
+					versions.append(concreteJar).append(" ");
+				}
+				if (drawing == null) {
+					final Cell versionsCell = row.createCell(cellCount++);
+					final String versionsString = versions.toString().trim();
+					versionsCell.setCellValue(versionsString);
+					widths.update(versionsCell.getColumnIndex(), versionsString);
+					continue;
 				}
 				final Comment comment = drawing.createCellComment(anchor);
-				final RichTextString str = book.getCreationHelper().createRichTextString(commentString.toString());
+				final RichTextString str = book.getCreationHelper().createRichTextString(versions.toString());
 				comment.setString(str);
 				earCell.setCellComment(comment);
 
 			}
 		}
 
-		adjustColumns(jarSheet, maxColumn);
+		widths.applyTo(jarSheet);
 	}
 
 	private void createJarUsageFrequencySheet(final Workbook book) {
 		final Sheet jarSheet = book.createSheet("JAR usage frequency");
 
 		int rowCount = 0;
-		int maxColumn = 0;
 		int cellCount = 0;
+		final ColumnWidths widths = new ColumnWidths();
 
 		final Row titleRow = jarSheet.createRow(rowCount++);
 		final Cell jarTitle = titleRow.createCell(cellCount++);
 		jarTitle.setCellValue("Archive");
+		widths.update(jarTitle.getColumnIndex(), "Archive");
 		final Cell jarUsage = titleRow.createCell(cellCount++);
 		jarUsage.setCellValue("Usage");
+		widths.update(jarUsage.getColumnIndex(), "Usage");
 
-		for (final Entry<ArchiveID, List<ArchiveFile>> jarEntry : jarEarMap.entrySet()) {
+		for (final ArchiveID jarID : jarEarIndex.getJarIds()) {
 			final Row row = jarSheet.createRow(rowCount++);
 
 			cellCount = 0;
 			final Cell jarCell = row.createCell(cellCount++);
-			final ArchiveID jarID = jarEntry.getKey();
 			final String archiveName = jarID.toString();
 			jarCell.setCellValue(archiveName);
+			widths.update(jarCell.getColumnIndex(), archiveName);
 
 			final Cell usageCell = row.createCell(cellCount++);
-			final int usageCount = jarEntry.getValue().size();
+			final int usageCount = jarEarIndex.getUsageCount(jarID);
 			usageCell.setCellValue(usageCount);
-
-			if (cellCount > maxColumn) {
-				maxColumn = cellCount;
-			}
-		}
-
-		adjustColumns(jarSheet, maxColumn);
-	}
-
-	private Collection<ArchiveFile> getMatchingJarsInEar(final ArchiveID unversionedJarID, final ArchiveFile ear) {
-		final List<ArchiveFile> concreteVersions = new ArrayList<ArchiveFile>();
-		for (final ArchiveFile concreteJar : ear.contains()) {
-
-			if (concreteJar.equalsExceptVersion(unversionedJarID)) {
-				concreteVersions.add(concreteJar);
-			}
+			widths.update(usageCell.getColumnIndex(), String.valueOf(usageCount));
 		}
-		return concreteVersions;
-	}
 
-	private void adjustColumns(final Sheet earSheet, final int maxColumn) {
-		for (int i = 0; i < maxColumn; i++) {
-			earSheet.autoSizeColumn(i);
-		}
+		widths.applyTo(jarSheet);
 	}
 }
@@ -0,0 +1,292 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.id.ArchiveID;
+
+/**
+ * Writes the same three views as {@link EarJarSpreadsheet} as plain text files, without using POI: EARs with their
+ * JARs, JARs with the EARs using them and the concrete versions used, and JAR usage frequency. Each view goes to a
+ * file of its own, named after a common base name, e.g. report-ears.csv, report-jars.csv and report-usage.csv.
+ * <p>
+ * EARs are written as they are passed to this sink, so the first view is written while parsing. The other two views
+ * are written from an index when the report is closed. Rows are written straight to buffered file channels.
+ */
+public final class EarJarTextReport implements ArchiveSink, Closeable {
+
+	/** output format, with one row per line */
+	public enum Format {
+		/** comma-separated values with a header line, quoted where necessary (RFC 4180) */
+		CSV("csv", "ear,jar\r\n", "jar,ear,version\r\n", "jar,usage\r\n") {
+			@Override
+			void writeEar(final Writer out, final ArchiveFile ear) throws IOException {
+				if (ear.contains().isEmpty()) {
+					// still listed, like in the other formats
+					writeCsv(out, ear.toString());
+					out.write(",\r\n");
+				}
+				for (final ArchiveFile jar : ear.contains()) {
+					writeCsv(out, ear.toString());
+					out.write(',');
+					writeCsv(out, jar.toString());
+					out.write("\r\n");
+				}
+			}
+
+			@Override
+			void writeJar(final Writer out, final ArchiveID jarId, final JarEarIndex index) throws IOException {
+				for (final ArchiveFile ear : index.getEars(jarId)) {
+					for (final ArchiveFile version : index.getVersions(jarId, ear)) {
+						writeCsv(out, jarId.toString());
+						out.write(',');
+						writeCsv(out, ear.toString());
+						out.write(',');
+						writeCsv(out, version.toString());
+						out.write("\r\n");
+					}
+				}
+			}
+
+			@Override
+			void writeUsage(final Writer out, final ArchiveID jarId, final int usage) throws IOException {
+				writeCsv(out, jarId.toString());
+				out.write(',');
+				out.write(Integer.toString(usage));
+				out.write("\r\n");
+			}
+		},
+
+		/** one JSON object per line */
+		JSON_LINES("jsonl", "", "", "") {
+			@Override
+			void writeEar(final Writer out, final ArchiveFile ear) throws IOException {
+				out.write("{\"ear\":");
+				writeJson(out, ear.toString());
+				out.write(",\"jars\":[");
+				boolean first = true;
+				for (final ArchiveFile jar : ear.contains()) {
+					if (!first) {
+						out.write(',');
+					}
+					first = false;
+					writeJson(out, jar.toString());
+				}
+				out.write("]}\n");
+			}
+
+			@Override
+			void writeJar(final Writer out, final ArchiveID jarId, final JarEarIndex index) throws IOException {
+				out.write("{\"jar\":");
+				writeJson(out, jarId.toString());
+				out.write(",\"ears\":[");
+				boolean firstEar = true;
+				for (final ArchiveFile ear : index.getEars(jarId)) {
+					if (!firstEar) {
+						out.write(',');
+					}
+					firstEar = false;
+					out.write("{\"ear\":");
+					writeJson(out, ear.toString());
+					out.write(",\"versions\":[");
+					boolean firstVersion = true;
+					for (final ArchiveFile version : index.getVersions(jarId, ear)) {
+						if (!firstVersion) {
+							out.write(',');
+						}
+						firstVersion = false;
+						writeJson(out, version.toString());
+					}
+					out.write("]}");
+				}
+				out.write("]}\n");
+			}
+
+			@Override
+			void writeUsage(final Writer out, final ArchiveID jarId, final int usage) throws IOException {
+				out.write("{\"jar\":");
+				writeJson(out, jarId.toString());
+				out.write(",\"usage\":");
+				out.write(Integer.toString(usage));
+				out.write("}\n");
+			}
+		};
+
+		private final String extension;
+		private final String earsHeader;
+		private final String jarsHeader;
+		private final String usageHeader;
+
+		private Format(final String extension, final String earsHeader, final String jarsHeader,
+				final String usageHeader) {
+			this.extension = extension;
+			this.earsHeader = earsHeader;
+			this.jarsHeader = jarsHeader;
+			this.usageHeader = usageHeader;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+
+		abstract void writeEar(Writer out, ArchiveFile ear) throws IOException;
+
+		abstract void writeJar(Writer out, ArchiveID jarId, JarEarIndex index) throws IOException;
+
+		abstract void writeUsage(Writer out, ArchiveID jarId, int usage) throws IOException;
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Format format;
+	private final File earsFile;
+	private final File jarsFile;
+	private final File usageFile;
+	private final JarEarIndex index = new JarEarIndex();
+	private final Writer ears;
+
+	/**
+	 * @param baseFile
+	 *            file name to derive the names of the view files from; an extension is dropped
+	 */
+	public EarJarTextReport(final Format format, final File baseFile) throws IOException {
+		this.format = format;
+
+		String base = baseFile.getName();
+		final int dot = base.lastIndexOf('.');
+		if (dot > 0) {
+			base = base.substring(0, dot);
+		}
+		earsFile = new File(baseFile.getParentFile(), base + "-ears." + format.getExtension());
+		jarsFile = new File(baseFile.getParentFile(), base + "-jars." + format.getExtension());
+		usageFile = new File(baseFile.getParentFile(), base + "-usage." + format.getExtension());
+
+		ears = open(earsFile);
+		ears.write(format.earsHeader);
+	}
+
+	/** @return files the three views are written to */
+	public File[] getFiles() {
+		return new File[] { earsFile, jarsFile, usageFile };
+	}
+
+	@Override
+	public void accept(final File file, final ArchiveFile archive) {
+		writeEar(archive);
+		index.add(archive);
+	}
+
+	private void writeEar(final ArchiveFile archive) {
+		try {
+			format.writeEar(ears, archive);
+		} catch (final IOException e) {
+			throw new IllegalStateException("cannot write " + earsFile, e);
+		}
+	}
+
+	/**
+	 * @return sink doing the indexing half of accept, which may run concurrently with that of getEarWriter(), see
+	 *         Pipeline
+	 */
+	public ArchiveSink getIndexer() {
+		return index;
+	}
+
+	/** @return sink doing the writing half of accept, see getIndexer() */
+	public ArchiveSink getEarWriter() {
+		return new ArchiveSink() {
+			@Override
+			public void accept(final File file, final ArchiveFile archive) {
+				writeEar(archive);
+			}
+		};
+	}
+
+	/** writes the remaining views and closes all files */
+	@Override
+	public void close() throws IOException {
+		ears.close();
+
+		final Writer jars = open(jarsFile);
+		try {
+			final Writer usage = open(usageFile);
+			try {
+				jars.write(format.jarsHeader);
+				usage.write(format.usageHeader);
+				for (final ArchiveID jarId : index.getJarIds()) {
+					format.writeJar(jars, jarId, index);
+					format.writeUsage(usage, jarId, index.getUsageCount(jarId));
+				}
+			} finally {
+				usage.close();
+			}
+		} finally {
+			jars.close();
+		}
+	}
+
+	private static Writer open(final File file) throws IOException {
+		return new BufferedWriter(Channels.newWriter(new FileOutputStream(file).getChannel(), UTF8.newEncoder(), -1),
+				BUFFER_SIZE);
+	}
+
+	static void writeCsv(final Writer out, final String value) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			final char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"') {
+				out.write('"');
+			}
+			out.write(c);
+		}
+		out.write('"');
+	}
+
+	static void writeJson(final Writer out, final String value) throws IOException {
+		out.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.write("\\\"");
+				break;
+			case '\\':
+				out.write("\\\\");
+				break;
+			case '\n':
+				out.write("\\n");
+				break;
+			case '\r':
+				out.write("\\r");
+				break;
+			case '\t':
+				out.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.write(String.format("\\u%04x", (int) c));
+				} else {
+					out.write(c);
+				}
+			}
+		}
+		out.write('"');
+	}
+}
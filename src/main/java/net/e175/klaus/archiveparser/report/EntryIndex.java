@@ -0,0 +1,302 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.EntryNames;
+
+/**
+ * Index of the files in the JARs of EARs parsed with EarJarParser.setIndexEntries(true): which EARs contain a class,
+ * and which classes are in more than one JAR of an EAR. EARs are added one after the other, e.g. while they are
+ * parsed, and each distinct JAR is indexed only once. The first query after adding EARs merges the entries of all
+ * JARs into one sorted table, so queries are a binary search followed by reading the results. Not thread-safe.
+ */
+public final class EntryIndex implements ArchiveSink {
+
+	/** Next entry of a JAR, while merging the entries of all JARs. */
+	private static final class Head implements Comparable<Head> {
+		private final Iterator<String> names;
+		private final int jar;
+		private String name;
+
+		Head(final Iterator<String> names, final int jar) {
+			this.names = names;
+			this.jar = jar;
+		}
+
+		boolean advance() {
+			if (!names.hasNext()) {
+				return false;
+			}
+			name = names.next();
+			return true;
+		}
+
+		@Override
+		public int compareTo(final Head o) {
+			final int byName = EntryNames.ORDER.compare(name, o.name);
+			return byName != 0 ? byName : jar - o.jar;
+		}
+	}
+
+	private static final String CLASS_SUFFIX = ".class";
+
+	private final List<ArchiveFile> ears = new ArrayList<ArchiveFile>();
+	private final Map<ArchiveFile, Integer> earOrdinals = new IdentityHashMap<ArchiveFile, Integer>();
+	/** sorted ordinals of the JARs in each EAR */
+	private final List<int[]> earJars = new ArrayList<int[]>();
+
+	private final List<ArchiveFile> jars = new ArrayList<ArchiveFile>();
+	private final Map<ArchiveFile, Integer> jarOrdinals = new IdentityHashMap<ArchiveFile, Integer>();
+	/** ordinals of the EARs containing each JAR, ascending */
+	private final List<List<Integer>> jarEars = new ArrayList<List<Integer>>();
+
+	/** the tables below are up to date */
+	private boolean built;
+	/** all distinct entry names; their positions are the entry IDs */
+	private EntryNames names = EntryNames.EMPTY;
+	/** the JARs containing entry ID i are jarsByEntry[entryOffsets[i]] up to jarsByEntry[entryOffsets[i + 1]] */
+	private int[] entryOffsets = new int[1];
+	private int[] jarsByEntry = new int[0];
+	/** sorted IDs of the classes in more than one JAR of each EAR */
+	private int[][] duplicateClasses = new int[0][];
+
+	/** adds an EAR, after all EARs added before; JARs without indexed entries are ignored */
+	public void add(final ArchiveFile ear) {
+		if (earOrdinals.containsKey(ear)) {
+			return;
+		}
+		final int earOrdinal = ears.size();
+		ears.add(ear);
+		earOrdinals.put(ear, earOrdinal);
+
+		final List<ArchiveFile> jarsInEar = new ArrayList<ArchiveFile>();
+		collectJars(ear, jarsInEar, new IdentityHashMap<ArchiveFile, Boolean>());
+		final int[] ordinals = new int[jarsInEar.size()];
+		int i = 0;
+		for (final ArchiveFile jar : jarsInEar) {
+			Integer jarOrdinal = jarOrdinals.get(jar);
+			if (jarOrdinal == null) {
+				jarOrdinal = jars.size();
+				jars.add(jar);
+				jarOrdinals.put(jar, jarOrdinal);
+				jarEars.add(new ArrayList<Integer>(1));
+			}
+			jarEars.get(jarOrdinal).add(earOrdinal);
+			ordinals[i++] = jarOrdinal;
+		}
+		Arrays.sort(ordinals);
+		earJars.add(ordinals);
+		built = false;
+	}
+
+	/** JARs in JARs count as being in the EAR, too */
+	private static void collectJars(final ArchiveFile archive, final List<ArchiveFile> collected,
+			final Map<ArchiveFile, Boolean> seen) {
+		for (final ArchiveFile contained : archive.contains()) {
+			if (contained.getEntries() != null && seen.put(contained, Boolean.TRUE) == null) {
+				collected.add(contained);
+				collectJars(contained, collected, seen);
+			}
+		}
+	}
+
+	@Override
+	public void accept(final File file, final ArchiveFile archive) {
+		add(archive);
+	}
+
+	/** @return all EARs added, in the order they were added */
+	public List<ArchiveFile> getEars() {
+		return Collections.unmodifiableList(ears);
+	}
+
+	/**
+	 * @param entryName
+	 *            full path of a file in a JAR, using '/' as separator, e.g. "javax/xml/XMLConstants.class"
+	 * @return EARs with a JAR containing that file, in the order they were added
+	 */
+	public List<ArchiveFile> getEarsContaining(final String entryName) {
+		build();
+		final int id = names.indexOf(entryName);
+		if (id < 0) {
+			return Collections.emptyList();
+		}
+		final BitSet earsFound = new BitSet(ears.size());
+		for (int i = entryOffsets[id]; i < entryOffsets[id + 1]; i++) {
+			for (final int earOrdinal : jarEars.get(jarsByEntry[i])) {
+				earsFound.set(earOrdinal);
+			}
+		}
+		final List<ArchiveFile> result = new ArrayList<ArchiveFile>(earsFound.cardinality());
+		for (int earOrdinal = earsFound.nextSetBit(0); earOrdinal >= 0; earOrdinal = earsFound
+				.nextSetBit(earOrdinal + 1)) {
+			result.add(ears.get(earOrdinal));
+		}
+		return result;
+	}
+
+	/**
+	 * @param className
+	 *            binary name of a class, e.g. "javax.xml.XMLConstants" or "java.util.Map$Entry"
+	 * @return EARs with a JAR containing that class, in the order they were added
+	 */
+	public List<ArchiveFile> getEarsContainingClass(final String className) {
+		return getEarsContaining(className.replace('.', '/') + CLASS_SUFFIX);
+	}
+
+	/**
+	 * @return binary names of the classes in more than one JAR of the EAR, in ORDER of their entry names, each with
+	 *         the JARs containing it, sorted; empty if the EAR wasn't added
+	 */
+	public Map<String, List<ArchiveFile>> getDuplicateClasses(final ArchiveFile ear) {
+		build();
+		final Integer earOrdinal = earOrdinals.get(ear);
+		if (earOrdinal == null) {
+			return Collections.emptyMap();
+		}
+		final int[] jarsInEar = earJars.get(earOrdinal);
+		final Map<String, List<ArchiveFile>> result = new LinkedHashMap<String, List<ArchiveFile>>();
+		for (final int id : duplicateClasses[earOrdinal]) {
+			final List<ArchiveFile> jarsWithClass = new ArrayList<ArchiveFile>(2);
+			for (int i = entryOffsets[id]; i < entryOffsets[id + 1]; i++) {
+				if (Arrays.binarySearch(jarsInEar, jarsByEntry[i]) >= 0) {
+					jarsWithClass.add(jars.get(jarsByEntry[i]));
+				}
+			}
+			Collections.sort(jarsWithClass);
+			final String entryName = names.get(id);
+			result.put(entryName.substring(0, entryName.length() - CLASS_SUFFIX.length()).replace('/', '.'),
+					jarsWithClass);
+		}
+		return result;
+	}
+
+	/** @return number of distinct entry names in all JARs */
+	public int getEntryCount() {
+		build();
+		return names.size();
+	}
+
+	/** @return number of distinct JARs indexed */
+	public int getJarCount() {
+		return jars.size();
+	}
+
+	/** @return approximate number of bytes used by the lookup tables */
+	public long getMemorySize() {
+		build();
+		long size = names.getMemorySize() + 4L * (entryOffsets.length + jarsByEntry.length);
+		for (final int[] duplicates : duplicateClasses) {
+			size += 16 + 4L * duplicates.length;
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return getEntryCount() + " distinct entries in " + getJarCount() + " JARs of " + ears.size() + " EARs, "
+				+ getMemorySize() / 1024 + " KB";
+	}
+
+	/** merges the sorted entries of all JARs into one table, assigning entry IDs in ORDER */
+	private void build() {
+		if (built) {
+			return;
+		}
+		final PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, jars.size()));
+		final int[][] entriesByJar = new int[jars.size()][];
+		final int[] entryCounts = new int[jars.size()];
+		int totalEntries = 0;
+		for (int jar = 0; jar < jars.size(); jar++) {
+			final EntryNames jarEntries = jars.get(jar).getEntries();
+			entriesByJar[jar] = new int[jarEntries.size()];
+			totalEntries += jarEntries.size();
+			final Head head = new Head(jarEntries.iterator(), jar);
+			if (head.advance()) {
+				heads.add(head);
+			}
+		}
+
+		final EntryNames.Builder builder = new EntryNames.Builder();
+		final BitSet classes = new BitSet();
+		int[] offsets = new int[1024];
+		final int[] jarsOfEntries = new int[totalEntries];
+		int id = -1;
+		String previous = null;
+		for (int i = 0; !heads.isEmpty(); i++) {
+			final Head head = heads.poll();
+			if (!head.name.equals(previous)) {
+				previous = head.name;
+				builder.add(previous);
+				id++;
+				if (id + 1 >= offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+				}
+				offsets[id] = i;
+				if (isClass(previous)) {
+					classes.set(id);
+				}
+			}
+			jarsOfEntries[i] = head.jar;
+			entriesByJar[head.jar][entryCounts[head.jar]++] = id;
+			if (head.advance()) {
+				heads.add(head);
+			}
+		}
+		offsets[id + 1] = totalEntries;
+
+		names = builder.build();
+		entryOffsets = Arrays.copyOf(offsets, id + 2);
+		jarsByEntry = jarsOfEntries;
+		duplicateClasses = findDuplicateClasses(entriesByJar, classes);
+		built = true;
+	}
+
+	private int[][] findDuplicateClasses(final int[][] entriesByJar, final BitSet classes) {
+		final int[][] duplicates = new int[ears.size()][];
+		for (int ear = 0; ear < ears.size(); ear++) {
+			int count = 0;
+			for (final int jar : earJars.get(ear)) {
+				count += entriesByJar[jar].length;
+			}
+			final int[] ids = new int[count];
+			int i = 0;
+			for (final int jar : earJars.get(ear)) {
+				for (final int id : entriesByJar[jar]) {
+					if (classes.get(id)) {
+						ids[i++] = id;
+					}
+				}
+			}
+			Arrays.sort(ids, 0, i);
+
+			int found = 0;
+			for (int j = 1; j < i; j++) {
+				// each JAR has each entry once, so repeated IDs are in different JARs
+				if (ids[j] == ids[j - 1] && (found == 0 || ids[found - 1] != ids[j])) {
+					ids[found++] = ids[j];
+				}
+			}
+			duplicates[ear] = Arrays.copyOf(ids, found);
+		}
+		return duplicates;
+	}
+
+	/** classes, but not the module descriptors and versioned classes under META-INF */
+	private static boolean isClass(final String entryName) {
+		return entryName.endsWith(CLASS_SUFFIX) && !entryName.startsWith("META-INF/")
+				&& !entryName.endsWith("module-info.class");
+	}
+
+}
@@ -0,0 +1,118 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveIDComparator;
+import net.e175.klaus.archiveparser.id.MavenArchiveID;
+
+/**
+ * Inverted index from unversioned JAR IDs (version "*") to the EARs containing them, and from there to the concrete
+ * JAR versions in each EAR. Built in a single pass over the EARs, which may be added while they are parsed; each
+ * distinct JAR instance is keyed only once. Not thread-safe.
+ */
+public final class JarEarIndex implements ArchiveSink {
+
+	private static final class Entry {
+		/** EARs in the order they were indexed, with the concrete JARs they contain */
+		private final Map<ArchiveFile, List<ArchiveFile>> versionsByEar = new LinkedHashMap<ArchiveFile, List<ArchiveFile>>();
+
+		private ArchiveFile lastEar;
+		private List<ArchiveFile> lastVersions;
+
+		/** EARs are indexed one after the other; an EAR equal to one indexed before only counts once */
+		void add(final ArchiveFile ear, final ArchiveFile jar) {
+			if (ear != lastEar) {
+				lastEar = ear;
+				lastVersions = null;
+				if (!versionsByEar.containsKey(ear)) {
+					lastVersions = new ArrayList<ArchiveFile>(1);
+					versionsByEar.put(ear, lastVersions);
+				}
+			}
+			if (lastVersions != null) {
+				lastVersions.add(jar);
+			}
+		}
+	}
+
+	private final Map<ArchiveID, Entry> entries = new HashMap<ArchiveID, Entry>();
+	/** JAR instances are usually shared between EARs, so remember their entry instead of recreating their key */
+	private final Map<ArchiveFile, Entry> entryByJar = new IdentityHashMap<ArchiveFile, Entry>();
+	/** sorted on demand */
+	private List<ArchiveID> jarIds;
+
+	/** creates an empty index, to add EARs to as they are parsed */
+	public JarEarIndex() {
+	}
+
+	public JarEarIndex(final Collection<ArchiveFile> ears) {
+		for (final ArchiveFile ear : ears) {
+			add(ear);
+		}
+	}
+
+	/** adds an EAR, after all EARs added before */
+	public void add(final ArchiveFile ear) {
+		for (final ArchiveFile jar : ear.contains()) {
+			Entry entry = entryByJar.get(jar);
+			if (entry == null) {
+				final ArchiveID jarId = jar.getArchiveID();
+				final ArchiveID unversionedId = new MavenArchiveID(jarId.getName(), "*", jarId.getType());
+				entry = entries.get(unversionedId);
+				if (entry == null) {
+					entry = new Entry();
+					entries.put(unversionedId, entry);
+					jarIds = null;
+				}
+				entryByJar.put(jar, entry);
+			}
+			entry.add(ear, jar);
+		}
+	}
+
+	@Override
+	public void accept(final File file, final ArchiveFile archive) {
+		add(archive);
+	}
+
+	/** @return all unversioned JAR IDs, sorted */
+	public List<ArchiveID> getJarIds() {
+		if (jarIds == null) {
+			final List<ArchiveID> ids = new ArrayList<ArchiveID>(entries.keySet());
+			Collections.sort(ids, ArchiveIDComparator.INSTANCE);
+			jarIds = Collections.unmodifiableList(ids);
+		}
+		return jarIds;
+	}
+
+	/** @return EARs containing any version of the JAR, in the order they were indexed */
+	public Collection<ArchiveFile> getEars(final ArchiveID unversionedJarId) {
+		final Entry entry = entries.get(unversionedJarId);
+		return entry == null ? Collections.<ArchiveFile> emptyList() : Collections.unmodifiableCollection(entry.versionsByEar
+				.keySet());
+	}
+
+	/** @return the concrete versions of the JAR contained in the EAR */
+	public List<ArchiveFile> getVersions(final ArchiveID unversionedJarId, final ArchiveFile ear) {
+		final Entry entry = entries.get(unversionedJarId);
+		final List<ArchiveFile> versions = entry == null ? null : entry.versionsByEar.get(ear);
+		return versions == null ? Collections.<ArchiveFile> emptyList() : Collections.unmodifiableList(versions);
+	}
+
+	/** @return number of EARs containing any version of the JAR */
+	public int getUsageCount(final ArchiveID unversionedJarId) {
+		final Entry entry = entries.get(unversionedJarId);
+		return entry == null ? 0 : entry.versionsByEar.size();
+	}
+
+}
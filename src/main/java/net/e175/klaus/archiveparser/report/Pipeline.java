@@ -0,0 +1,367 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.UniqueJarFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs finding, parsing and processing EARs as concurrent stages connected by bounded queues, so that waiting for
+ * directories, reading archives and indexing or writing results overlap. One thread takes EARs from the source (which
+ * may itself be searching with several threads, see {@link EarFilter#walkEarFiles(java.util.Collection, int)}), the
+ * parser parses them just like EarJarParser.parseFiles(Iterator, ArchiveSink) does, with as many threads and open
+ * archives, and each sink gets a thread of its own. Sinks receive the archives in source order, one after the other,
+ * so they need not be thread-safe. Where the parser uses virtual threads, each stage runs in one, too.
+ * <p>
+ * A stage that can't keep up makes the queue in front of it fill up and the stages before it wait, which bounds the
+ * number of archives in flight. Queue statistics show where that happens.
+ */
+public final class Pipeline {
+
+	/** How full a queue between two stages has been, and how long the stages around it waited. */
+	public static final class QueueStatistics {
+		private final String name;
+		private final int capacity;
+		private final long items;
+		private final long depthSum;
+		private final long maxDepth;
+		private final long putWaitNanos;
+		private final long takeWaitNanos;
+
+		QueueStatistics(final String name, final int capacity, final long items, final long depthSum,
+				final long maxDepth, final long putWaitNanos, final long takeWaitNanos) {
+			this.name = name;
+			this.capacity = capacity;
+			this.items = items;
+			this.depthSum = depthSum;
+			this.maxDepth = maxDepth;
+			this.putWaitNanos = putWaitNanos;
+			this.takeWaitNanos = takeWaitNanos;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		/** @return number of archives passed through the queue */
+		public long getItems() {
+			return items;
+		}
+
+		/** @return average number of archives queued, as seen by each one put into the queue */
+		public double getAverageDepth() {
+			return items == 0 ? 0 : (double) depthSum / items;
+		}
+
+		public long getMaxDepth() {
+			return maxDepth;
+		}
+
+		/** @return total time the stage before the queue waited for room, i.e. the stage after it was too slow */
+		public long getPutWaitTime(final TimeUnit unit) {
+			return unit.convert(putWaitNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/** @return total time the stage after the queue waited for archives, i.e. the stage before it was too slow */
+		public long getTakeWaitTime(final TimeUnit unit) {
+			return unit.convert(takeWaitNanos, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ENGLISH,
+					"%s: items=%d, capacity=%d, averageDepth=%.1f, maxDepth=%d, putWait=%dms, takeWait=%dms", name,
+					items, capacity, getAverageDepth(), maxDepth, getPutWaitTime(TimeUnit.MILLISECONDS),
+					getTakeWaitTime(TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/** An archive on its way through the pipeline. */
+	private static final class Item {
+		private final File file;
+		/** null until parsed */
+		private final ArchiveFile archive;
+
+		Item(final File file, final ArchiveFile archive) {
+			this.file = file;
+			this.archive = archive;
+		}
+	}
+
+	/** The files put into a queue, up to the end of the source, waiting for each. */
+	private static final class QueueIterator implements Iterator<File> {
+		private final StageQueue queue;
+		private Item next;
+
+		QueueIterator(final StageQueue queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null) {
+				try {
+					next = queue.take();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("interrupted while waiting for archives", e);
+				}
+			}
+			return next != END;
+		}
+
+		@Override
+		public File next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final File file = next.file;
+			next = null;
+			return file;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/** Bounded queue between two stages, keeping statistics. */
+	private static final class StageQueue {
+		private final String name;
+		private final int capacity;
+		private final BlockingQueue<Item> queue;
+		private final AtomicLong items = new AtomicLong();
+		private final AtomicLong depthSum = new AtomicLong();
+		private final AtomicLong maxDepth = new AtomicLong();
+		private final AtomicLong putWaitNanos = new AtomicLong();
+		private final AtomicLong takeWaitNanos = new AtomicLong();
+
+		StageQueue(final String name, final int capacity) {
+			this.name = name;
+			this.capacity = capacity;
+			queue = new ArrayBlockingQueue<Item>(capacity);
+		}
+
+		void put(final Item item) throws InterruptedException {
+			if (!queue.offer(item)) {
+				final long start = System.nanoTime();
+				queue.put(item);
+				putWaitNanos.addAndGet(System.nanoTime() - start);
+			}
+			if (item != END) {
+				final int depth = queue.size();
+				items.incrementAndGet();
+				depthSum.addAndGet(depth);
+				long max = maxDepth.get();
+				while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+					max = maxDepth.get();
+				}
+			}
+		}
+
+		Item take() throws InterruptedException {
+			Item item = queue.poll();
+			if (item == null) {
+				final long start = System.nanoTime();
+				item = queue.take();
+				takeWaitNanos.addAndGet(System.nanoTime() - start);
+			}
+			return item;
+		}
+
+		QueueStatistics getStatistics() {
+			return new QueueStatistics(name, capacity, items.get(), depthSum.get(), maxDepth.get(),
+					putWaitNanos.get(), takeWaitNanos.get());
+		}
+	}
+
+	/** marks the end of the source in each queue */
+	private static final Item END = new Item(null, null);
+
+	private static final Logger LOG = LoggerFactory.getLogger(Pipeline.class);
+
+	private final EarJarParser parser;
+	private final int queueCapacity;
+	private final List<StageQueue> queues = new ArrayList<StageQueue>();
+
+	/**
+	 * @param parser
+	 *            parses the archives with its own concurrency, see EarJarParser.parseFiles(Iterator, ArchiveSink)
+	 * @param queueCapacity
+	 *            number of archives each queue between two stages can hold
+	 */
+	public Pipeline(final EarJarParser parser, final int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("queue capacity must be at least 1, but is " + queueCapacity);
+		}
+		this.parser = parser;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Parses all files from the source and passes each archive to all sinks in turn, in the order of the source.
+	 * Returns when all sinks have processed all archives, and the parser has frozen them.
+	 */
+	public void run(final Iterator<File> files, final ArchiveSink... sinks) {
+		if (sinks.length == 0) {
+			throw new IllegalArgumentException("need at least one sink");
+		}
+		final UniqueJarFactory archiveFactory = parser.createArchiveFactory();
+		// in source order, to freeze them once the sinks are done
+		final List<ArchiveFile> archives = new ArrayList<ArchiveFile>();
+		queues.clear();
+		final StageQueue found = new StageQueue("found", queueCapacity);
+		queues.add(found);
+		final StageQueue parsed = new StageQueue("parsed", queueCapacity);
+		queues.add(parsed);
+		for (int i = 1; i < sinks.length; i++) {
+			queues.add(new StageQueue("accepted by sink " + i, queueCapacity));
+		}
+
+		final ThreadFactory virtualThreads = parser.virtualThreadFactory("pipeline-");
+		final int threads = 2 + sinks.length;
+		final Run run = new Run(virtualThreads == null ? Executors.newFixedThreadPool(threads) : Executors
+				.newCachedThreadPool(virtualThreads));
+
+		run.start(new Stage() {
+			@Override
+			void process() throws InterruptedException {
+				while (files.hasNext()) {
+					found.put(new Item(files.next(), null));
+				}
+				found.put(END);
+			}
+		});
+
+		run.start(new Stage() {
+			@Override
+			void process() throws InterruptedException {
+				parser.parseFiles(new QueueIterator(found), Integer.MAX_VALUE, archiveFactory, new ArchiveSink() {
+					@Override
+					public void accept(final File file, final ArchiveFile archive) {
+						archives.add(archive);
+						try {
+							parsed.put(new Item(file, archive));
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new IllegalStateException("interrupted while passing on " + file, e);
+						}
+					}
+				});
+				parsed.put(END);
+			}
+		});
+
+		for (int i = 0; i < sinks.length; i++) {
+			final ArchiveSink sink = sinks[i];
+			final StageQueue in = queues.get(i + 1);
+			final StageQueue out = i + 2 < queues.size() ? queues.get(i + 2) : null;
+			run.start(new Stage() {
+				@Override
+				void process() throws InterruptedException {
+					for (Item item = in.take(); item != END; item = in.take()) {
+						sink.accept(item.file, item.archive);
+						if (out != null) {
+							out.put(item);
+						}
+					}
+					if (out != null) {
+						out.put(END);
+					}
+				}
+			});
+		}
+
+		run.await();
+		parser.finish(archiveFactory, archives);
+	}
+
+	/** @return statistics of the queues of the last run, in pipeline order */
+	public List<QueueStatistics> getQueueStatistics() {
+		final List<QueueStatistics> statistics = new ArrayList<QueueStatistics>(queues.size());
+		for (final StageQueue queue : queues) {
+			statistics.add(queue.getStatistics());
+		}
+		return Collections.unmodifiableList(statistics);
+	}
+
+	/** One thread of a stage. */
+	private abstract static class Stage {
+		abstract void process() throws InterruptedException;
+	}
+
+	/** Threads of all stages of one run, stopping all of them when one fails. */
+	private static final class Run {
+		private final ExecutorService executor;
+		private volatile Throwable failure;
+
+		Run(final ExecutorService executor) {
+			this.executor = executor;
+		}
+
+		void start(final Stage stage) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						stage.process();
+					} catch (final InterruptedException e) {
+						// stopped because another stage failed
+					} catch (final RuntimeException e) {
+						fail(e);
+					} catch (final Error e) {
+						fail(e);
+					}
+				}
+			});
+		}
+
+		private synchronized void fail(final Throwable t) {
+			if (failure == null) {
+				failure = t;
+				executor.shutdownNow();
+			}
+		}
+
+		void await() {
+			executor.shutdown();
+			try {
+				while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					LOG.debug("pipeline still running");
+				}
+			} catch (final InterruptedException e) {
+				executor.shutdownNow();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("interrupted while running pipeline", e);
+			}
+
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+		}
+	}
+
+}
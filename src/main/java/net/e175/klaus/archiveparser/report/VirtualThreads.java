@@ -0,0 +1,70 @@
+package net.e175.klaus.archiveparser.report;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates virtual threads where the JVM has them (Java 21 and later). Looked up by reflection, so this still builds
+ * and runs on older JVMs, which get null and should fall back to platform threads.
+ */
+final class VirtualThreads {
+
+	private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+	/** Thread.ofVirtual(), Thread.Builder.name(String, long) and Thread.Builder.factory(), if available */
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+		} catch (final ClassNotFoundException e) {
+			LOG.debug("no virtual threads in this JVM");
+		} catch (final NoSuchMethodException e) {
+			LOG.debug("no virtual threads in this JVM");
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+	}
+
+	private VirtualThreads() {
+	}
+
+	static boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @param prefix
+	 *            name of the threads, followed by a counter
+	 * @return factory of virtual threads, or null if this JVM has none
+	 */
+	static ThreadFactory factory(final String prefix) {
+		if (!isAvailable()) {
+			return null;
+		}
+		try {
+			final Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 1L);
+			return (ThreadFactory) FACTORY.invoke(builder);
+		} catch (final IllegalAccessException e) {
+			LOG.warn("cannot create virtual threads: {}", e.getMessage());
+			return null;
+		} catch (final InvocationTargetException e) {
+			LOG.warn("cannot create virtual threads: {}", e.getCause().getMessage());
+			return null;
+		}
+	}
+
+}
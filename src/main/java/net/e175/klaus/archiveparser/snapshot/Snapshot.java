@@ -0,0 +1,292 @@
+package net.e175.klaus.archiveparser.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.ContainmentGraph;
+import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveType;
+import net.e175.klaus.archiveparser.id.MavenArchiveID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary snapshot of parsed archives and everything they contain, to load an analysis again without parsing any
+ * archives.
+ * <p>
+ * A snapshot starts with a magic number and a format version, followed by sections. Each section is a tag and the
+ * length of its content in bytes, so readers skip sections they don't know. All numbers are big-endian ints:
+ * <ul>
+ * <li>strings: count, then each string as its length and UTF-8 bytes</li>
+ * <li>archives: count, then for each archive the string index of its name and version (-1 for none) and its type as
+ * one byte</li>
+ * <li>roots: count and ordinals of the archives the snapshot was written for, in their original order</li>
+ * <li>contains, containedIn: the relations of a {@link ContainmentGraph}, as count and offsets, then count and
+ * ordinals</li>
+ * </ul>
+ */
+public final class Snapshot {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Snapshot.class);
+
+	private static final int MAGIC = 0x4150534E; // "APSN"
+
+	/** increment whenever the file format changes incompatibly */
+	static final int FORMAT_VERSION = 1;
+
+	private static final int TAG_STRINGS = 1;
+	private static final int TAG_ARCHIVES = 2;
+	private static final int TAG_ROOTS = 3;
+	private static final int TAG_CONTAINS = 4;
+	private static final int TAG_CONTAINED_IN = 5;
+
+	private static final int NONE = -1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Snapshot() {
+	}
+
+	/**
+	 * Writes the archives, and all archives they contain, to the file. This freezes the archives, see
+	 * {@link ContainmentGraph#freeze}.
+	 */
+	public static void write(final List<ArchiveFile> archives, final File file) throws IOException {
+		final ContainmentGraph graph = ContainmentGraph.freeze(archives);
+
+		final List<String> strings = new ArrayList<String>();
+		final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+		final ByteArrayOutputStream archiveSection = new ByteArrayOutputStream(graph.size() * 9 + 4);
+		final DataOutputStream archiveOut = new DataOutputStream(archiveSection);
+		archiveOut.writeInt(graph.size());
+		for (int i = 0; i < graph.size(); i++) {
+			final ArchiveID id = graph.get(i).getArchiveID();
+			archiveOut.writeInt(indexOf(id.getName(), strings, stringIndexes));
+			archiveOut.writeInt(indexOf(id.getVersion(), strings, stringIndexes));
+			archiveOut.writeByte(id.getType().ordinal());
+		}
+
+		final ByteArrayOutputStream stringSection = new ByteArrayOutputStream();
+		final DataOutputStream stringOut = new DataOutputStream(stringSection);
+		stringOut.writeInt(strings.size());
+		for (final String s : strings) {
+			final byte[] bytes = s.getBytes(UTF8);
+			stringOut.writeInt(bytes.length);
+			stringOut.write(bytes);
+		}
+
+		final ByteArrayOutputStream rootSection = new ByteArrayOutputStream(archives.size() * 4 + 4);
+		final DataOutputStream rootOut = new DataOutputStream(rootSection);
+		rootOut.writeInt(archives.size());
+		for (final ArchiveFile archive : archives) {
+			rootOut.writeInt(graph.ordinalOf(archive));
+		}
+
+		final ByteArrayOutputStream containsSection = new ByteArrayOutputStream();
+		final ByteArrayOutputStream containedInSection = new ByteArrayOutputStream();
+		writeRelations(graph, false, new DataOutputStream(containsSection));
+		writeRelations(graph, true, new DataOutputStream(containedInSection));
+
+		// write to a temp file first, so an interrupted write doesn't destroy an existing snapshot
+		final File tempFile = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			writeSection(out, TAG_STRINGS, stringSection);
+			writeSection(out, TAG_ARCHIVES, archiveSection);
+			writeSection(out, TAG_ROOTS, rootSection);
+			writeSection(out, TAG_CONTAINS, containsSection);
+			writeSection(out, TAG_CONTAINED_IN, containedInSection);
+		} finally {
+			out.close();
+		}
+
+		if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+			throw new IOException("cannot replace snapshot " + file);
+		}
+		LOG.info("wrote snapshot {} with {} archives and {} strings", new Object[] { file, graph.size(),
+				strings.size() });
+	}
+
+	private static int indexOf(final String s, final List<String> strings, final Map<String, Integer> indexes) {
+		if (s == null) {
+			return NONE;
+		}
+		Integer index = indexes.get(s);
+		if (index == null) {
+			index = Integer.valueOf(strings.size());
+			strings.add(s);
+			indexes.put(s, index);
+		}
+		return index.intValue();
+	}
+
+	private static void writeRelations(final ContainmentGraph graph, final boolean containedIn,
+			final DataOutputStream out) throws IOException {
+		final List<int[]> relations = new ArrayList<int[]>(graph.size());
+		out.writeInt(graph.size() + 1);
+		int offset = 0;
+		out.writeInt(offset);
+		for (int i = 0; i < graph.size(); i++) {
+			final int[] ordinals = containedIn ? graph.containedInOrdinals(i) : graph.containsOrdinals(i);
+			relations.add(ordinals);
+			offset += ordinals.length;
+			out.writeInt(offset);
+		}
+		out.writeInt(offset);
+		for (final int[] ordinals : relations) {
+			for (final int ordinal : ordinals) {
+				out.writeInt(ordinal);
+			}
+		}
+	}
+
+	private static void writeSection(final DataOutputStream out, final int tag, final ByteArrayOutputStream content)
+			throws IOException {
+		out.writeInt(tag);
+		out.writeInt(content.size());
+		content.writeTo(out);
+	}
+
+	/**
+	 * Reads a snapshot by memory-mapping the file.
+	 * 
+	 * @return the archives the snapshot was written for, in the same order
+	 */
+	public static List<ArchiveFile> read(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a snapshot from the buffer's position to its limit.
+	 * 
+	 * @return the archives the snapshot was written for, in the same order
+	 */
+	public static List<ArchiveFile> read(final ByteBuffer snapshot) throws IOException {
+		final ByteBuffer buffer = snapshot.slice();
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("not a snapshot");
+			}
+			final int version = buffer.getInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("unsupported snapshot version " + version + ", expected " + FORMAT_VERSION);
+			}
+
+			String[] strings = null;
+			ByteBuffer archives = null;
+			int[] roots = null;
+			int[][] contains = null;
+			int[][] containedIn = null;
+			while (buffer.hasRemaining()) {
+				final int tag = buffer.getInt();
+				final int length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					throw new IOException("section " + tag + " is truncated");
+				}
+				final ByteBuffer section = buffer.slice();
+				section.limit(length);
+				buffer.position(buffer.position() + length);
+
+				switch (tag) {
+				case TAG_STRINGS:
+					strings = readStrings(section);
+					break;
+				case TAG_ARCHIVES:
+					archives = section;
+					break;
+				case TAG_ROOTS:
+					roots = readInts(section);
+					break;
+				case TAG_CONTAINS:
+					contains = new int[][] { readInts(section), readInts(section) };
+					break;
+				case TAG_CONTAINED_IN:
+					containedIn = new int[][] { readInts(section), readInts(section) };
+					break;
+				default:
+					LOG.debug("skipping unknown snapshot section {}", tag);
+				}
+			}
+			if (strings == null || archives == null || roots == null || contains == null || containedIn == null) {
+				throw new IOException("snapshot is incomplete");
+			}
+
+			final ContainmentGraph graph = ContainmentGraph.restore(readIDs(archives, strings), contains[0],
+					contains[1], containedIn[0], containedIn[1]);
+			final List<ArchiveFile> result = new ArrayList<ArchiveFile>(roots.length);
+			for (final int root : roots) {
+				result.add(graph.get(root));
+			}
+			return Collections.unmodifiableList(result);
+		} catch (final BufferUnderflowException e) {
+			throw new IOException("snapshot is truncated", e);
+		} catch (final IndexOutOfBoundsException e) {
+			throw new IOException("snapshot is corrupt", e);
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("snapshot is corrupt", e);
+		}
+	}
+
+	private static String[] readStrings(final ByteBuffer section) {
+		final String[] strings = new String[checkedCount(section, 4)];
+		for (int i = 0; i < strings.length; i++) {
+			final byte[] bytes = new byte[checkedCount(section, 1)];
+			section.get(bytes);
+			strings[i] = new String(bytes, UTF8);
+		}
+		return strings;
+	}
+
+	private static int[] readInts(final ByteBuffer section) {
+		final int[] ints = new int[checkedCount(section, 4)];
+		section.asIntBuffer().get(ints);
+		section.position(section.position() + 4 * ints.length);
+		return ints;
+	}
+
+	/** @return a count read from the section, if there are enough bytes left for that many elements */
+	private static int checkedCount(final ByteBuffer section, final int bytesPerElement) {
+		final int count = section.getInt();
+		if (count < 0 || (long) count * bytesPerElement > section.remaining()) {
+			throw new IllegalArgumentException("invalid count " + count);
+		}
+		return count;
+	}
+
+	private static ArchiveID[] readIDs(final ByteBuffer section, final String[] strings) {
+		final ArchiveType[] types = ArchiveType.values();
+		final ArchiveID[] ids = new ArchiveID[checkedCount(section, 9)];
+		for (int i = 0; i < ids.length; i++) {
+			final int name = section.getInt();
+			final int version = section.getInt();
+			final int type = section.get();
+			ids[i] = new MavenArchiveID(name == NONE ? null : strings[name], version == NONE ? null
+					: strings[version], types[type]);
+		}
+		return ids;
+	}
+}
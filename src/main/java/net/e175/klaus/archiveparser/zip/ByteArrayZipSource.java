@@ -0,0 +1,33 @@
+package net.e175.klaus.archiveparser.zip;
+
+import java.io.EOFException;
+
+/** ZipSource backed by an in-memory array, used for nested archives that had to be inflated. */
+public final class ByteArrayZipSource implements ZipSource {
+
+	private final byte[] data;
+
+	public ByteArrayZipSource(final byte[] data) {
+		this.data = data;
+	}
+
+	@Override
+	public long length() {
+		return data.length;
+	}
+
+	@Override
+	public void read(final long position, final byte[] buffer, final int offset, final int length)
+			throws EOFException {
+		if (position < 0 || position + length > data.length) {
+			throw new EOFException("cannot read " + length + " bytes at position " + position + " of " + data.length);
+		}
+		System.arraycopy(data, (int) position, buffer, offset, length);
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+
+}
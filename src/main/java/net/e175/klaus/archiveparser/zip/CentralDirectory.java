@@ -0,0 +1,323 @@
+package net.e175.klaus.archiveparser.zip;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of ZIP archives (including ZIP64) directly from a ZipSource. Only the directory
+ * records at the end of the archive are read, not the entries themselves.
+ */
+public final class CentralDirectory {
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int EOCD_LENGTH = 22;
+	private static final int MAX_COMMENT_LENGTH = 0xffff;
+	private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	private static final int ZIP64_LOCATOR_LENGTH = 20;
+	private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+	private static final int ZIP64_EOCD_LENGTH = 56;
+	private static final int CEN_SIGNATURE = 0x02014b50;
+	private static final int CEN_LENGTH = 46;
+	private static final int LOC_SIGNATURE = 0x04034b50;
+	private static final int LOC_LENGTH = 30;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+
+	/** largest nested archive that fits into an array */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/** default of the largest nested archive inflated into memory rather than into a temp file */
+	public static final int DEFAULT_MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+
+	// JARs, WARs and EARs use UTF-8 names, whether or not the language encoding flag is set
+	private static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+
+	private CentralDirectory() {
+	}
+
+	/**
+	 * @return all entries of the archive in central directory order
+	 * @throws ZipException
+	 *             if the source is not a ZIP archive
+	 */
+	public static List<ZipEntryInfo> read(final ZipSource source) throws IOException {
+		final long length = source.length();
+		if (length < EOCD_LENGTH) {
+			throw new ZipException("too short for a ZIP archive");
+		}
+
+		final int tailLength = (int) Math.min(length, EOCD_LENGTH + MAX_COMMENT_LENGTH);
+		final long tailStart = length - tailLength;
+		final byte[] tail = new byte[tailLength];
+		source.read(tailStart, tail, 0, tailLength);
+
+		int eocd = -1;
+		for (int i = tailLength - EOCD_LENGTH; i >= 0; i--) {
+			if (getInt(tail, i) == EOCD_SIGNATURE && i + EOCD_LENGTH + getShort(tail, i + 20) <= tailLength) {
+				eocd = i;
+				break;
+			}
+		}
+		if (eocd < 0) {
+			throw new ZipException("end of central directory record not found");
+		}
+
+		long entryCount = getShort(tail, eocd + 10);
+		long directorySize = getUnsignedInt(tail, eocd + 12);
+		long directoryOffset = getUnsignedInt(tail, eocd + 16);
+		long directoryEnd = tailStart + eocd;
+
+		final long locator = tailStart + eocd - ZIP64_LOCATOR_LENGTH;
+		if (locator >= 0 && (entryCount == 0xffff || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC)) {
+			final byte[] locatorBytes = new byte[ZIP64_LOCATOR_LENGTH];
+			source.read(locator, locatorBytes, 0, ZIP64_LOCATOR_LENGTH);
+			if (getInt(locatorBytes, 0) == ZIP64_LOCATOR_SIGNATURE) {
+				final byte[] record = new byte[ZIP64_EOCD_LENGTH];
+				long recordOffset = getLong(locatorBytes, 8);
+				if (recordOffset < 0 || recordOffset + ZIP64_EOCD_LENGTH > locator) {
+					recordOffset = locator - ZIP64_EOCD_LENGTH;
+				}
+				source.read(recordOffset, record, 0, ZIP64_EOCD_LENGTH);
+				if (getInt(record, 0) != ZIP64_EOCD_SIGNATURE) {
+					// archive has been prefixed with other data, the record should be right before the locator
+					recordOffset = locator - ZIP64_EOCD_LENGTH;
+					source.read(recordOffset, record, 0, ZIP64_EOCD_LENGTH);
+					if (getInt(record, 0) != ZIP64_EOCD_SIGNATURE) {
+						throw new ZipException("ZIP64 end of central directory record not found");
+					}
+				}
+				entryCount = getLong(record, 32);
+				directorySize = getLong(record, 40);
+				directoryOffset = getLong(record, 48);
+				directoryEnd = recordOffset;
+			}
+		}
+
+		// offsets are relative to the start of the archive, which may have been prefixed with other data
+		final long shift = directoryEnd - directorySize - directoryOffset;
+		if (directorySize > Integer.MAX_VALUE || directoryOffset < 0 || shift < 0) {
+			throw new ZipException("invalid central directory size or offset");
+		}
+
+		final byte[] directory = new byte[(int) directorySize];
+		source.read(directoryOffset + shift, directory, 0, directory.length);
+
+		final List<ZipEntryInfo> entries = new ArrayList<ZipEntryInfo>((int) Math.min(entryCount, 0xffff));
+		int pos = 0;
+		while (pos + CEN_LENGTH <= directory.length && getInt(directory, pos) == CEN_SIGNATURE) {
+			final int method = getShort(directory, pos + 10);
+			final long crc = getUnsignedInt(directory, pos + 16);
+			long compressedSize = getUnsignedInt(directory, pos + 20);
+			long size = getUnsignedInt(directory, pos + 24);
+			final int nameLength = getShort(directory, pos + 28);
+			final int extraLength = getShort(directory, pos + 30);
+			final int commentLength = getShort(directory, pos + 32);
+			long localHeaderOffset = getUnsignedInt(directory, pos + 42);
+
+			final int nameStart = pos + CEN_LENGTH;
+			final int extraStart = nameStart + nameLength;
+			final int next = extraStart + extraLength + commentLength;
+			if (next > directory.length) {
+				throw new ZipException("truncated central directory");
+			}
+
+			final String name = new String(directory, nameStart, nameLength, NAME_CHARSET);
+
+			// ZIP64 extended information replaces exactly those values that are set to the magic value
+			int extra = extraStart;
+			while (extra + 4 <= extraStart + extraLength) {
+				final int id = getShort(directory, extra);
+				final int dataLength = getShort(directory, extra + 2);
+				if (id == ZIP64_EXTRA_ID) {
+					int field = extra + 4;
+					final int fieldEnd = field + dataLength;
+					if (size == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+						size = getLong(directory, field);
+						field += 8;
+					}
+					if (compressedSize == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+						compressedSize = getLong(directory, field);
+						field += 8;
+					}
+					if (localHeaderOffset == ZIP64_MAGIC && field + 8 <= fieldEnd) {
+						localHeaderOffset = getLong(directory, field);
+					}
+					break;
+				}
+				extra += 4 + dataLength;
+			}
+
+			entries.add(new ZipEntryInfo(name, method, crc, compressedSize, size, localHeaderOffset + shift));
+			pos = next;
+		}
+
+		if (entries.size() != entryCount && entryCount != 0xffff) {
+			throw new ZipException("central directory should have " + entryCount + " entries, but has "
+					+ entries.size());
+		}
+
+		return entries;
+	}
+
+	/** like openEntry(source, entry, DEFAULT_MAX_INFLATED_SIZE) */
+	public static ZipSource openEntry(final ZipSource source, final ZipEntryInfo entry) throws IOException {
+		return openEntry(source, entry, DEFAULT_MAX_INFLATED_SIZE);
+	}
+
+	/** like openEntry(source, entry, maxInflatedSize, null) */
+	public static ZipSource openEntry(final ZipSource source, final ZipEntryInfo entry, final int maxInflatedSize)
+			throws IOException {
+		return openEntry(source, entry, maxInflatedSize, null);
+	}
+
+	/**
+	 * Opens the contents of an entry. STORED entries are returned as a slice of the source without copying anything,
+	 * DEFLATED entries are inflated into memory, or into a temp file if they are larger than maxInflatedSize. The
+	 * result must be closed to delete that file.
+	 *
+	 * @param tempDirectory
+	 *            where to create temp files, or null for the default temp directory
+	 */
+	public static ZipSource openEntry(final ZipSource source, final ZipEntryInfo entry, final int maxInflatedSize,
+			final File tempDirectory) throws IOException {
+		final long dataStart = dataOffset(source, entry);
+
+		switch (entry.getMethod()) {
+		case ZipEntryInfo.STORED:
+			return new SliceZipSource(source, dataStart, entry.getSize());
+		case ZipEntryInfo.DEFLATED:
+			if (entry.getSize() < 0 || entry.getCompressedSize() < 0
+					|| entry.getCompressedSize() > source.length() - dataStart) {
+				throw new ZipException("invalid size of entry " + entry);
+			}
+			// the size may be wrong, so it only tells where the data will go, not how much memory to set aside
+			if (entry.getSize() > Math.min(maxInflatedSize, MAX_ARRAY_SIZE)) {
+				return inflateToFile(source, dataStart, entry, tempDirectory);
+			}
+			return new ByteArrayZipSource(inflate(source, dataStart, entry));
+		default:
+			throw new ZipException("unsupported compression method " + entry.getMethod() + " for entry " + entry);
+		}
+	}
+
+	/** @return position of the (possibly compressed) data of the entry within the source */
+	public static long dataOffset(final ZipSource source, final ZipEntryInfo entry) throws IOException {
+		final byte[] header = new byte[LOC_LENGTH];
+		if (entry.getLocalHeaderOffset() < 0) {
+			throw new ZipException("invalid local header offset of entry " + entry);
+		}
+		source.read(entry.getLocalHeaderOffset(), header, 0, LOC_LENGTH);
+		if (getInt(header, 0) != LOC_SIGNATURE) {
+			throw new ZipException("invalid local header for entry " + entry);
+		}
+		return entry.getLocalHeaderOffset() + LOC_LENGTH + getShort(header, 26) + getShort(header, 28);
+	}
+
+	private static byte[] inflate(final ZipSource source, final long dataStart, final ZipEntryInfo entry)
+			throws IOException {
+		final byte[] data = new byte[(int) entry.getSize()];
+		final Inflater inflater = new Inflater(true);
+		try {
+			final InputStream in = new InflaterInputStream(new SourceInputStream(source, dataStart,
+					entry.getCompressedSize()), inflater, SourceInputStream.BUFFER_SIZE);
+			int pos = 0;
+			while (pos < data.length) {
+				final int count = in.read(data, pos, data.length - pos);
+				if (count < 0) {
+					throw new EOFException("unexpected end of compressed data in entry " + entry);
+				}
+				pos += count;
+			}
+		} finally {
+			inflater.end();
+		}
+		return data;
+	}
+
+	private static ZipSource inflateToFile(final ZipSource source, final long dataStart, final ZipEntryInfo entry,
+			final File tempDirectory) throws IOException {
+		final File file = File.createTempFile("archiveparser", ".zip", tempDirectory);
+		boolean inflated = false;
+		final Inflater inflater = new Inflater(true);
+		try {
+			final InputStream in = new InflaterInputStream(new SourceInputStream(source, dataStart,
+					entry.getCompressedSize()), inflater, SourceInputStream.BUFFER_SIZE);
+			final OutputStream out = new FileOutputStream(file);
+			try {
+				final byte[] buffer = new byte[SourceInputStream.BUFFER_SIZE];
+				for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				out.close();
+			}
+			final ZipSource result = FileZipSource.temporary(file);
+			inflated = true;
+			return result;
+		} finally {
+			inflater.end();
+			if (!inflated && !file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	/** Sequential stream over a region of a source. */
+	static final class SourceInputStream extends InputStream {
+		private static final int BUFFER_SIZE = 8192;
+
+		private final ZipSource source;
+		private final long end;
+		private long position;
+		private final byte[] single = new byte[1];
+
+		SourceInputStream(final ZipSource source, final long start, final long length) {
+			this.source = source;
+			this.position = start;
+			this.end = start + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			final int count = (int) Math.min(Math.min(length, BUFFER_SIZE), end - position);
+			source.read(position, buffer, offset, count);
+			position += count;
+			return count;
+		}
+	}
+
+	static int getShort(final byte[] b, final int pos) {
+		return b[pos] & 0xff | (b[pos + 1] & 0xff) << 8;
+	}
+
+	static int getInt(final byte[] b, final int pos) {
+		return getShort(b, pos) | getShort(b, pos + 2) << 16;
+	}
+
+	static long getUnsignedInt(final byte[] b, final int pos) {
+		return getInt(b, pos) & ZIP64_MAGIC;
+	}
+
+	static long getLong(final byte[] b, final int pos) {
+		return getUnsignedInt(b, pos) | getUnsignedInt(b, pos + 4) << 32;
+	}
+
+}
@@ -0,0 +1,61 @@
+package net.e175.klaus.archiveparser.zip;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** ZipSource reading from a file using positional reads, so no seek state is shared between threads. */
+public final class FileZipSource implements ZipSource {
+
+	private final FileInputStream stream;
+	private final FileChannel channel;
+	private final long length;
+	/** deleted on close, or null */
+	private File temporaryFile;
+
+	public FileZipSource(final File file) throws IOException {
+		stream = new FileInputStream(file);
+		channel = stream.getChannel();
+		length = channel.size();
+	}
+
+	/** @return source deleting the file when it is closed */
+	static FileZipSource temporary(final File file) throws IOException {
+		final FileZipSource source = new FileZipSource(file);
+		source.temporaryFile = file;
+		return source;
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public void read(final long position, final byte[] buffer, final int offset, final int length) throws IOException {
+		if (position < 0 || position > this.length - length) {
+			throw new EOFException("cannot read " + length + " bytes at position " + position + " of " + this.length);
+		}
+		final ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+		long current = position;
+		while (target.hasRemaining()) {
+			final int count = channel.read(target, current);
+			if (count < 0) {
+				throw new EOFException("unexpected end of file at position " + current);
+			}
+			current += count;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+		if (temporaryFile != null && !temporaryFile.delete() && temporaryFile.exists()) {
+			throw new IOException("failed to delete " + temporaryFile);
+		}
+	}
+
+}
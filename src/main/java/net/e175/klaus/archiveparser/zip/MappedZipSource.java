@@ -0,0 +1,83 @@
+package net.e175.klaus.archiveparser.zip;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * ZipSource reading from a memory-mapped file. Files larger than what a single mapping can hold are mapped in several
+ * chunks. Reads are plain memory copies without any system calls.
+ * <p>
+ * Note that the mapping is only released once the buffers are garbage collected, closing just closes the file.
+ */
+public final class MappedZipSource implements ZipSource {
+
+	/** maximum size of a single mapping, must be a power of two */
+	static final int CHUNK_SIZE = 1 << 30;
+
+	private final int chunkSize;
+	private final ByteBuffer[] chunks;
+	private final long length;
+	private final FileInputStream stream;
+
+	public MappedZipSource(final File file) throws IOException {
+		this(file, CHUNK_SIZE);
+	}
+
+	MappedZipSource(final File file, final int chunkSize) throws IOException {
+		if (Integer.bitCount(chunkSize) != 1 || chunkSize > CHUNK_SIZE) {
+			throw new IllegalArgumentException("invalid chunk size " + chunkSize);
+		}
+		this.chunkSize = chunkSize;
+		stream = new FileInputStream(file);
+		try {
+			final FileChannel channel = stream.getChannel();
+			length = channel.size();
+			chunks = new ByteBuffer[(int) ((length + chunkSize - 1) / chunkSize)];
+			for (int i = 0; i < chunks.length; i++) {
+				final long start = (long) i * chunkSize;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length - start));
+			}
+		} catch (final IOException e) {
+			stream.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public void read(final long position, final byte[] buffer, final int offset, final int length) throws IOException {
+		if (position < 0 || position + length > this.length) {
+			throw new EOFException("cannot read " + length + " bytes at position " + position + " of " + this.length);
+		}
+
+		long current = position;
+		int done = 0;
+		while (done < length) {
+			final int chunk = (int) (current / chunkSize);
+			final int chunkOffset = (int) (current - (long) chunk * chunkSize);
+			final int count = Math.min(length - done, chunkSize - chunkOffset);
+
+			// duplicates have their own position, so concurrent reads don't interfere
+			final ByteBuffer view = chunks[chunk].duplicate();
+			view.position(chunkOffset);
+			view.get(buffer, offset + done, count);
+
+			current += count;
+			done += count;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+
+}
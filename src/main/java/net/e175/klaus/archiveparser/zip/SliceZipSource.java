@@ -0,0 +1,45 @@
+package net.e175.klaus.archiveparser.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.ZipException;
+
+/** ZipSource for a region of another source, e.g. a nested archive that is STORED uncompressed in its parent. */
+public final class SliceZipSource implements ZipSource {
+
+	private final ZipSource parent;
+	private final long start;
+	private final long length;
+
+	/**
+	 * @throws ZipException
+	 *             if the slice is not within the parent, e.g. because a corrupt central directory gave its position
+	 */
+	public SliceZipSource(final ZipSource parent, final long start, final long length) throws ZipException {
+		if (start < 0 || length < 0 || start > parent.length() || length > parent.length() - start) {
+			throw new ZipException("slice " + start + "+" + length + " exceeds parent length " + parent.length());
+		}
+		this.parent = parent;
+		this.start = start;
+		this.length = length;
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public void read(final long position, final byte[] buffer, final int offset, final int length) throws IOException {
+		if (position < 0 || position + length > this.length) {
+			throw new EOFException("cannot read " + length + " bytes at position " + position + " of " + this.length);
+		}
+		parent.read(start + position, buffer, offset, length);
+	}
+
+	@Override
+	public void close() {
+		// the parent owns the underlying resources
+	}
+
+}
@@ -0,0 +1,59 @@
+package net.e175.klaus.archiveparser.zip;
+
+/** What the central directory of a ZIP archive says about one of its entries. */
+public final class ZipEntryInfo {
+	public static final int STORED = 0;
+	public static final int DEFLATED = 8;
+
+	private final String name;
+	private final int method;
+	private final long crc;
+	private final long compressedSize;
+	private final long size;
+	private final long localHeaderOffset;
+
+	ZipEntryInfo(final String name, final int method, final long crc, final long compressedSize, final long size,
+			final long localHeaderOffset) {
+		this.name = name;
+		this.method = method;
+		this.crc = crc;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.localHeaderOffset = localHeaderOffset;
+	}
+
+	/** @return the full path of the entry within its archive, using '/' as separator */
+	public String getName() {
+		return name;
+	}
+
+	public boolean isDirectory() {
+		return name.endsWith("/");
+	}
+
+	/** @return the compression method, usually STORED or DEFLATED */
+	public int getMethod() {
+		return method;
+	}
+
+	public long getCrc() {
+		return crc;
+	}
+
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLocalHeaderOffset() {
+		return localHeaderOffset;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,22 @@
+package net.e175.klaus.archiveparser.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Random access to the bytes of a ZIP archive, which may be a file on disk or just a region within another archive.
+ * Implementations must allow concurrent reads.
+ */
+public interface ZipSource extends Closeable {
+
+	long length();
+
+	/**
+	 * Reads exactly length bytes starting at position into buffer.
+	 * 
+	 * @throws java.io.EOFException
+	 *             if the source ends before all bytes could be read
+	 */
+	void read(long position, byte[] buffer, int offset, int length) throws IOException;
+
+}
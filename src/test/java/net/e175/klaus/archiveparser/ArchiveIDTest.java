@@ -2,8 +2,20 @@ package net.e175.klaus.archiveparser;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveIDComparator;
+import net.e175.klaus.archiveparser.id.ArchiveIDPool;
 import net.e175.klaus.archiveparser.id.ArchiveType;
 import net.e175.klaus.archiveparser.id.MavenArchiveID;
 
@@ -11,6 +23,70 @@ import org.junit.Test;
 
 public class ArchiveIDTest {
 
+	/** what MavenArchiveID used to parse filenames with */
+	private static final Pattern MVN_PATTERN = Pattern.compile("(.*)\\.(j|w|e|r)ar", Pattern.CASE_INSENSITIVE);
+	private static final Pattern NAME_VERSION_PATTERN = Pattern.compile("(.*)-(\\d{1}.*)", Pattern.CASE_INSENSITIVE);
+
+	private static ArchiveID parseWithRegex(final String filename) {
+		Matcher matcher = MVN_PATTERN.matcher(filename);
+		if (!matcher.matches()) {
+			return null;
+		}
+		String name = matcher.group(1);
+		String version = ArchiveID.UNKNOWN_VERSION;
+		final ArchiveType type;
+		switch (matcher.group(2).toLowerCase().charAt(0)) {
+		case 'j':
+			type = ArchiveType.JAR;
+			break;
+		case 'w':
+			type = ArchiveType.WAR;
+			break;
+		case 'e':
+			type = ArchiveType.EAR;
+			break;
+		default:
+			type = ArchiveType.RAR;
+		}
+		matcher = NAME_VERSION_PATTERN.matcher(name);
+		if (matcher.matches()) {
+			name = matcher.group(1);
+			version = matcher.group(2);
+		}
+		return new MavenArchiveID(name, version, type);
+	}
+
+	@Test
+	public void parsesLikeRegularExpressions() {
+		final MavenArchiveID mvn = new MavenArchiveID();
+		final List<String> filenames = new ArrayList<String>(Arrays.asList("", ".jar", "jar", "x.jar", "-1.jar",
+				"a-.jar", "a-1.jar", "a--1.jar", "a-1-2.jar", "a-1-b.jar", "a-b-1.WAR", "a-1.Ear", "a-1.rAR", "a-1.oar",
+				"a-1.jar.zip", "a-1.jarx", "a.JAR.jar", "a\n-1.jar", "a-\n1.jar", "a-1\u2028.jar",
+				"a-\u0663.jar", "commons-lang-2.6.jar", "fooblabbquaxi-002871-SNAPSHOT.war", "fooR032.ear"));
+
+		final String alphabet = "aJrRwWeE.-019\n\u0663";
+		final Random random = new Random(4711);
+		for (int i = 0; i < 20000; i++) {
+			final StringBuilder filename = new StringBuilder();
+			final int length = random.nextInt(8);
+			for (int j = 0; j < length; j++) {
+				filename.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			filename.append(random.nextBoolean() ? ".jar" : "." + alphabet.charAt(random.nextInt(alphabet.length()))
+					+ "ar");
+			filenames.add(filename.toString());
+		}
+
+		for (final String filename : filenames) {
+			final ArchiveID expected = parseWithRegex(filename);
+			assertEquals(filename, expected, mvn.tryParse(filename));
+			assertEquals(filename, expected != null, mvn.isApplicable(filename));
+			if (expected != null) {
+				assertEquals(filename, expected.getVersion(), mvn.parse(filename).getVersion());
+			}
+		}
+	}
+
 	@Test
 	public void canCompareEqualEARNames() {
 		final String ear1 = "fooR032.ear";
@@ -23,6 +99,52 @@ public class ArchiveIDTest {
 		assertEquals(id1, id2);
 	}
 
+	@Test
+	public void comparesByNameVersionAndType() {
+		final ArchiveID id1 = new MavenArchiveID("foo", "1.0", ArchiveType.JAR);
+		final ArchiveID id2 = new MavenArchiveID().parse("foo-1.0.jar");
+
+		assertEquals(id1, id2);
+		assertEquals(id1.hashCode(), id2.hashCode());
+		assertEquals(0, ArchiveIDComparator.INSTANCE.compare(id1, id2));
+
+		// the string representations of these are equal, but their parts aren't
+		final ArchiveID odd1 = new MavenArchiveID("foo:1", "2", ArchiveType.JAR);
+		final ArchiveID odd2 = new MavenArchiveID("foo", "1:2", ArchiveType.JAR);
+		assertFalse(odd1.equals(odd2));
+
+		assertTrue(ArchiveIDComparator.INSTANCE.compare(id1, new MavenArchiveID("foo", "1.1", ArchiveType.JAR)) < 0);
+		assertTrue(ArchiveIDComparator.INSTANCE.compare(id1, new MavenArchiveID("foo", "1.0", ArchiveType.WAR)) < 0);
+		assertTrue(ArchiveIDComparator.INSTANCE.compare(id1, new MavenArchiveID()) > 0);
+	}
+
+	@Test
+	public void sharesPooledIDsAndParts() {
+		final ArchiveIDPool pool = new ArchiveIDPool();
+		final MavenArchiveID mvn = new MavenArchiveID();
+
+		final ArchiveID foo1 = pool.intern(mvn.parse("foo-1.0.jar"));
+		assertSame(foo1, pool.intern(mvn.parse("foo-1.0.jar")));
+		assertSame(foo1.getName(), pool.intern(mvn.parse("foo-2.0.jar")).getName());
+		assertSame(foo1.getVersion(), pool.intern(mvn.parse("bar-1.0.jar")).getVersion());
+
+		pool.clear();
+		assertEquals(0, pool.size());
+		assertNotSame(foo1, pool.intern(mvn.parse("foo-1.0.jar")));
+	}
+
+	@Test
+	public void stopsPoolingWhenFull() {
+		final ArchiveIDPool pool = new ArchiveIDPool(2);
+		pool.intern("a");
+		pool.intern("b");
+
+		final String c = new String("c");
+		assertSame(c, pool.intern(c));
+		assertNotSame(c, pool.intern(new String("c")));
+		assertEquals(2, pool.size());
+	}
+
 	@Test
 	public void canUnderstandEARNames() {
 		final String ear1 = "foo.ear";
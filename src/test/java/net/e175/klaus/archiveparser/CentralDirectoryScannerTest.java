@@ -0,0 +1,281 @@
+package net.e175.klaus.archiveparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.CentralDirectoryScanner;
+import net.e175.klaus.archiveparser.core.TrueZipArchiveScanner;
+import net.e175.klaus.archiveparser.core.UniqueJarFactory;
+import net.e175.klaus.archiveparser.id.MavenArchiveIDProvider;
+import net.e175.klaus.archiveparser.metrics.Metrics;
+import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarParser;
+import net.e175.klaus.archiveparser.report.EntryIndex;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CentralDirectoryScannerTest {
+
+	private static final String SAMPLES_DIR = "src/test/resources/samples";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void findsSameArchivesAsTrueZip() {
+		final List<File> ears = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+
+		final List<ArchiveFile> viaTrueZip = new EarJarParser().parseFiles(ears);
+
+		final EarJarParser parser = new EarJarParser();
+		parser.setArchiveScanner(new CentralDirectoryScanner());
+		final List<ArchiveFile> viaCentralDirectory = parser.parseFiles(ears);
+
+		assertEquals(viaTrueZip, viaCentralDirectory);
+		for (int i = 0; i < viaTrueZip.size(); i++) {
+			assertEquals(viaTrueZip.get(i).contains(), viaCentralDirectory.get(i).contains());
+		}
+	}
+
+	@Test
+	public void ignoresNestedJars() {
+		final ArchiveFile f = new ArchiveFile(new File(SAMPLES_DIR, "illegally-nested-jar.jar"),
+				new MavenArchiveIDProvider(), null, new CentralDirectoryScanner());
+		assertEquals(0, f.contains().size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void throwsExceptionForNestedEars() {
+		new ArchiveFile(new File(SAMPLES_DIR + "/badthings", "illegally-nested-earR001.ear"),
+				new MavenArchiveIDProvider(), null, new CentralDirectoryScanner());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void throwsExceptionForBadFiles() {
+		new ArchiveFile(new File("foo"), new MavenArchiveIDProvider(), null, new CentralDirectoryScanner());
+	}
+
+	@Test
+	public void readsStoredAndDeflatedNestedArchives() throws IOException {
+		assertFindsAllNestedArchives(new CentralDirectoryScanner(false));
+	}
+
+	@Test
+	public void readsNestedArchivesFromMemoryMappedFiles() throws IOException {
+		assertFindsAllNestedArchives(new CentralDirectoryScanner(true));
+	}
+
+	@Test
+	public void inflatesLargeNestedArchivesIntoTempFiles() throws IOException {
+		final File tempDirectory = temp.newFolder("inflated");
+		final CentralDirectoryScanner scanner = new CentralDirectoryScanner(false, 0, tempDirectory);
+		final int[] mostTempFiles = new int[1];
+		assertFindsAllNestedArchives(new ArchiveScanner() {
+			@Override
+			public List<File> findContainedArchives(final File archive) {
+				final List<File> found = scanner.findContainedArchives(archive);
+				mostTempFiles[0] = Math.max(mostTempFiles[0], tempDirectory.list().length);
+				return found;
+			}
+
+			@Override
+			public void release(final File archive) {
+				scanner.release(archive);
+			}
+		});
+		assertTrue(mostTempFiles[0] > 0);
+		assertEquals(0, tempDirectory.list().length);
+	}
+
+	private void assertFindsAllNestedArchives(final ArchiveScanner scanner) throws IOException {
+		final byte[] jar = zip(false, "META-INF/MANIFEST.MF");
+		final byte[] storedWar = zip(true, "WEB-INF/lib/stored-1.0.jar", jar, "WEB-INF/lib/other-2.0.jar", jar);
+		final byte[] deflatedWar = zip(false, "WEB-INF/lib/deflated-3.0.jar", jar);
+
+		final File ear = new File(temp.getRoot(), "nestedR001.ear");
+		final FileOutputStream out = new FileOutputStream(ear);
+		try {
+			out.write(zip(true, "stored-1.0.war", storedWar, "lib/deflated-1.0.war", deflatedWar, "lib/top-4.0.jar",
+					jar));
+		} finally {
+			out.close();
+		}
+
+		final ArchiveFile archive = new ArchiveFile(ear, new MavenArchiveIDProvider(), new UniqueJarFactory(scanner),
+				scanner);
+
+		final List<String> names = new ArrayList<String>();
+		for (final ArchiveFile contained : archive.contains()) {
+			names.add(contained.toString());
+		}
+		assertEquals(4, names.size());
+		assertTrue(names.contains("stored:1.0:JAR"));
+		assertTrue(names.contains("other:2.0:JAR"));
+		assertTrue(names.contains("deflated:3.0:JAR"));
+		assertTrue(names.contains("top:4.0:JAR"));
+	}
+
+	@Test
+	public void recognisesJarsByContent() throws IOException {
+		final byte[] jar = zip(false, "a/A.class");
+		final byte[] otherJar = zip(false, "b/B.class");
+		final File original = write("originalR001.ear", zip(true, "lib/foo-1.0.jar", jar));
+		final File renamed = write("renamedR001.ear", zip(false, "lib/foo-renamed-1.0.jar", jar));
+		final File rebuilt = write("rebuiltR001.ear", zip(true, "lib/foo-1.0.jar", otherJar));
+
+		final CentralDirectoryScanner scanner = new CentralDirectoryScanner();
+		for (final UniqueJarFactory.JarIdentity identity : new UniqueJarFactory.JarIdentity[] {
+				UniqueJarFactory.JarIdentity.CONTENT, UniqueJarFactory.JarIdentity.CONTENT_DIGEST }) {
+			final UniqueJarFactory factory = new UniqueJarFactory(scanner, identity);
+			final ArchiveFile foo = onlyJarIn(original, factory, scanner);
+			assertSame(foo, onlyJarIn(renamed, factory, scanner));
+			assertNotSame(foo, onlyJarIn(rebuilt, factory, scanner));
+			assertEquals(1, factory.getStatistics().getHits());
+		}
+
+		final UniqueJarFactory byName = new UniqueJarFactory(scanner);
+		final ArchiveFile foo = onlyJarIn(original, byName, scanner);
+		assertNotSame(foo, onlyJarIn(renamed, byName, scanner));
+		assertSame(foo, onlyJarIn(rebuilt, byName, scanner));
+	}
+
+	@Test
+	public void indexesClassesInJars() throws IOException {
+		final byte[] none = new byte[0];
+		final byte[] a = zip(false, "META-INF/MANIFEST.MF", none, "javax/xml/XMLConstants.class", none,
+				"a/A.class", none);
+		final byte[] b = zip(false, "META-INF/MANIFEST.MF", none, "javax/xml/XMLConstants.class", none,
+				"b/B.class", none);
+		final File both = write("bothR001.ear", zip(false, "lib/a-1.0.jar", a, "lib/b-1.0.jar", b));
+		final File one = write("oneR001.ear", zip(true, "web.war", zip(true, "WEB-INF/lib/a-1.0.jar", a)));
+
+		final EarJarParser parser = new EarJarParser();
+		parser.setArchiveScanner(new CentralDirectoryScanner());
+		parser.setIndexEntries(true);
+		final List<ArchiveFile> ears = parser.parseFiles(Arrays.asList(both, one));
+		final EntryIndex index = new EntryIndex();
+		for (final ArchiveFile ear : ears) {
+			index.add(ear);
+		}
+
+		assertEquals(2, index.getJarCount());
+		assertEquals(4, index.getEntryCount());
+		assertEquals(ears, index.getEarsContainingClass("javax.xml.XMLConstants"));
+		assertEquals(ears.subList(0, 1), index.getEarsContainingClass("b.B"));
+		assertEquals(ears, index.getEarsContaining("META-INF/MANIFEST.MF"));
+		assertTrue(index.getEarsContainingClass("c.C").isEmpty());
+
+		final Map<String, List<ArchiveFile>> duplicates = index.getDuplicateClasses(ears.get(0));
+		assertEquals(Collections.singleton("javax.xml.XMLConstants"), duplicates.keySet());
+		assertEquals(ears.get(0).contains(), duplicates.get("javax.xml.XMLConstants"));
+		assertTrue(index.getDuplicateClasses(ears.get(1)).isEmpty());
+
+		// shared along with the JAR
+		assertSame(ears.get(0).contains().get(0).getEntries(), ears.get(1).contains().get(0).getEntries());
+	}
+
+	@Test
+	public void indexesEntriesOnlyIfMeasuredScannerCanListThem() throws IOException {
+		final byte[] jar = zip(false, "a/A.class", new byte[0]);
+		final File ear = write("oneR001.ear", zip(false, "lib/a-1.0.jar", jar));
+
+		final EarJarParser parser = new EarJarParser();
+		parser.setMetricsListener(new Metrics());
+		parser.setIndexEntries(true);
+		parser.setArchiveScanner(new CentralDirectoryScanner());
+		assertEquals(1, parser.parseFiles(Arrays.asList(ear)).get(0).contains().get(0).getEntries().size());
+
+		parser.setArchiveScanner(new TrueZipArchiveScanner());
+		assertNull(parser.parseFiles(Arrays.asList(ear)).get(0).contains().get(0).getEntries());
+	}
+
+	@Test
+	public void skipsNestedArchivesWithCorruptSizes() throws IOException {
+		final byte[] jar = zip(false, "META-INF/MANIFEST.MF");
+		final byte[] ear = zip(true, "lib/good-1.0.jar", jar, "broken.war", zip(true, "WEB-INF/lib/bad-1.0.jar", jar));
+		// the central directory claims the WAR is larger than the whole EAR
+		final int brokenRecord = indexOf(ear, "broken.war".getBytes("UTF-8"), ear.length / 2) - 46;
+		for (int i = 20; i < 28; i++) {
+			ear[brokenRecord + i] = i % 4 == 3 ? (byte) 0x7f : (byte) 0xff;
+		}
+
+		final CentralDirectoryScanner scanner = new CentralDirectoryScanner();
+		final ArchiveFile archive = new ArchiveFile(write("corruptR001.ear", ear), new MavenArchiveIDProvider(),
+				new UniqueJarFactory(scanner), scanner);
+		assertEquals(1, archive.contains().size());
+		assertEquals("good:1.0:JAR", archive.contains().get(0).toString());
+	}
+
+	private static int indexOf(final byte[] bytes, final byte[] part, final int from) {
+		for (int i = from; i + part.length <= bytes.length; i++) {
+			if (Arrays.equals(part, Arrays.copyOfRange(bytes, i, i + part.length))) {
+				return i;
+			}
+		}
+		throw new AssertionError("not found");
+	}
+
+	private static ArchiveFile onlyJarIn(final File ear, final UniqueJarFactory factory,
+			final CentralDirectoryScanner scanner) {
+		final List<ArchiveFile> jars = new ArchiveFile(ear, new MavenArchiveIDProvider(), factory, scanner).contains();
+		assertEquals(1, jars.size());
+		return jars.get(0);
+	}
+
+	private File write(final String name, final byte[] content) throws IOException {
+		final File file = new File(temp.getRoot(), name);
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/**
+	 * @param nameOrContent
+	 *            alternating entry names and contents, a trailing name without content gets empty content
+	 */
+	private static byte[] zip(final boolean stored, final Object... nameOrContent) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ZipOutputStream zip = new ZipOutputStream(bytes);
+		for (int i = 0; i < nameOrContent.length; i += 2) {
+			final byte[] content = i + 1 < nameOrContent.length ? (byte[]) nameOrContent[i + 1] : new byte[0];
+			final ZipEntry entry = new ZipEntry((String) nameOrContent[i]);
+			if (stored) {
+				final CRC32 crc = new CRC32();
+				crc.update(content);
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(content.length);
+				entry.setCrc(crc.getValue());
+			}
+			zip.putNextEntry(entry);
+			zip.write(content);
+			zip.closeEntry();
+		}
+		zip.close();
+		return bytes.toByteArray();
+	}
+
+}
@@ -0,0 +1,108 @@
+package net.e175.klaus.archiveparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarSpreadsheet;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EarJarSpreadsheetTest {
+
+	private static final String SAMPLES_DIR = "src/test/resources/samples";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void streamingWorkbookHasSameContents() throws IOException {
+		final EarJarSpreadsheet spread = new EarJarSpreadsheet();
+		spread.analyze(new File(SAMPLES_DIR), new EarFilter());
+
+		final File inMemory = new File(temp.getRoot(), "in-memory.xlsx");
+		final File streamed = new File(temp.getRoot(), "streamed.xlsx");
+		spread.createWorkbook(inMemory);
+		spread.createStreamingWorkbook(streamed, 2);
+
+		final Workbook expected = read(inMemory);
+		final Workbook actual = read(streamed);
+
+		assertEquals(3, expected.getNumberOfSheets());
+		assertEquals(expected.getNumberOfSheets(), actual.getNumberOfSheets());
+		assertSameCells(expected.getSheetAt(0), actual.getSheetAt(0));
+		assertVersionsInCells(expected.getSheetAt(1), actual.getSheetAt(1));
+		assertSameCells(expected.getSheetAt(2), actual.getSheetAt(2));
+	}
+
+	@Test
+	public void sizesColumnsToContents() throws IOException {
+		final EarJarSpreadsheet spread = new EarJarSpreadsheet();
+		spread.analyze(new File(SAMPLES_DIR), new EarFilter());
+		final File file = new File(temp.getRoot(), "sized.xlsx");
+		spread.createWorkbook(file);
+
+		final Sheet frequency = read(file).getSheet("JAR usage frequency");
+		// "dummy:*:JAR" is the longest name in the first column, plus padding
+		assertEquals((11 + 2) * 256, frequency.getColumnWidth(0));
+	}
+
+	private static void assertSameCells(final Sheet expected, final Sheet actual) {
+		assertEquals(expected.getSheetName(), actual.getSheetName());
+		assertEquals(expected.getLastRowNum(), actual.getLastRowNum());
+		for (int r = 0; r <= expected.getLastRowNum(); r++) {
+			final Row expectedRow = expected.getRow(r);
+			final Row actualRow = actual.getRow(r);
+			assertNotNull(actualRow);
+			assertEquals(expectedRow.getLastCellNum(), actualRow.getLastCellNum());
+			for (int c = 0; c < expectedRow.getLastCellNum(); c++) {
+				final Cell expectedCell = expectedRow.getCell(c);
+				final Cell actualCell = actualRow.getCell(c);
+				assertEquals(expected.getColumnWidth(c), actual.getColumnWidth(c));
+				assertEquals(expectedCell.toString(), actualCell.toString());
+			}
+		}
+	}
+
+	/** streamed JAR rows carry each EAR's versions in the cell after it instead of in a comment */
+	private static void assertVersionsInCells(final Sheet expected, final Sheet actual) {
+		assertEquals(expected.getSheetName(), actual.getSheetName());
+		assertEquals(expected.getLastRowNum(), actual.getLastRowNum());
+		for (int r = 0; r <= expected.getLastRowNum(); r++) {
+			final Row expectedRow = expected.getRow(r);
+			final Row actualRow = actual.getRow(r);
+			assertEquals(expectedRow.getCell(0).toString(), actualRow.getCell(0).toString());
+			assertEquals(2 * expectedRow.getLastCellNum() - 1, actualRow.getLastCellNum());
+			for (int c = 1; c < expectedRow.getLastCellNum(); c++) {
+				final Cell expectedCell = expectedRow.getCell(c);
+				assertEquals(expectedCell.toString(), actualRow.getCell(2 * c - 1).toString());
+				assertEquals(expectedCell.getCellComment().getString().getString().trim(), actualRow.getCell(2 * c)
+						.toString());
+				assertNull(actualRow.getCell(2 * c - 1).getCellComment());
+			}
+		}
+	}
+
+	private static Workbook read(final File file) throws IOException {
+		final InputStream in = new FileInputStream(file);
+		try {
+			return new XSSFWorkbook(in);
+		} finally {
+			in.close();
+		}
+	}
+
+}
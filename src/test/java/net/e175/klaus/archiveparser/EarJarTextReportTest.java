@@ -0,0 +1,100 @@
+package net.e175.klaus.archiveparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.matchers.JUnitMatchers.hasItem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarParser;
+import net.e175.klaus.archiveparser.report.EarJarTextReport;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EarJarTextReportTest {
+
+	private static final String SAMPLES_DIR = "src/test/resources/samples";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File[] write(final EarJarTextReport.Format format) throws IOException {
+		return write(format, new EarJarParser(2));
+	}
+
+	private File[] write(final EarJarTextReport.Format format, final EarJarParser parser) throws IOException {
+		final EarJarTextReport report = new EarJarTextReport(format, new File(temp.getRoot(), "report.out"));
+		try {
+			parser.parseFiles(new EarFilter().filterEarFiles(new File(SAMPLES_DIR)), report);
+		} finally {
+			report.close();
+		}
+		return report.getFiles();
+	}
+
+	private static List<String> read(final File file) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	@Test
+	public void writesCsvViews() throws IOException {
+		final File[] files = write(EarJarTextReport.Format.CSV);
+
+		assertEquals(new File(temp.getRoot(), "report-ears.csv"), files[0]);
+		final List<String> ears = read(files[0]);
+		assertEquals("ear,jar", ears.get(0));
+		assertThat(ears, hasItem("simpleearr001:UNKNOWN:EAR,dummy:1.2.8:JAR"));
+
+		final List<String> jars = read(files[1]);
+		assertEquals("jar,ear,version", jars.get(0));
+		assertThat(jars, hasItem("dummy:*:JAR,simpleearr001:UNKNOWN:EAR,dummy:1.2.8:JAR"));
+
+		final List<String> usage = read(files[2]);
+		assertEquals("jar,usage", usage.get(0));
+		assertThat(usage, hasItem("dummy:*:JAR,2"));
+	}
+
+	@Test
+	public void writesCsvRowsForEarsWithoutJars() throws IOException {
+		final EarJarParser parser = new EarJarParser();
+		parser.setMaxDepth(0);
+		final List<String> ears = read(write(EarJarTextReport.Format.CSV, parser)[0]);
+
+		assertEquals(9, ears.size());
+		assertThat(ears, hasItem("simpleearr001:UNKNOWN:EAR,"));
+	}
+
+	@Test
+	public void writesJsonLinesViews() throws IOException {
+		final File[] files = write(EarJarTextReport.Format.JSON_LINES);
+
+		final List<String> ears = read(files[0]);
+		assertEquals(8, ears.size());
+		for (final String line : ears) {
+			assertTrue(line, line.startsWith("{\"ear\":\"") && line.endsWith("]}"));
+		}
+
+		assertThat(read(files[2]), hasItem("{\"jar\":\"dummy:*:JAR\",\"usage\":2}"));
+		assertEquals(read(files[1]).size(), read(files[2]).size());
+	}
+}
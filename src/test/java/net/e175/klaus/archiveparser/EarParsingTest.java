@@ -1,28 +1,55 @@
 package net.e175.klaus.archiveparser;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.junit.matchers.JUnitMatchers.containsString;
 import static org.junit.matchers.JUnitMatchers.hasItem;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.ContainmentGraph;
+import net.e175.klaus.archiveparser.core.TrueZipArchiveScanner;
+import net.e175.klaus.archiveparser.core.UniqueJarFactory;
 import net.e175.klaus.archiveparser.id.ArchiveID;
 import net.e175.klaus.archiveparser.id.ArchiveType;
 import net.e175.klaus.archiveparser.id.MavenArchiveID;
 import net.e175.klaus.archiveparser.id.MavenArchiveIDProvider;
+import net.e175.klaus.archiveparser.metrics.Metrics;
+import net.e175.klaus.archiveparser.metrics.Phase;
+import net.e175.klaus.archiveparser.report.ArchiveSink;
 import net.e175.klaus.archiveparser.report.EarFilter;
 import net.e175.klaus.archiveparser.report.EarJarParser;
+import net.e175.klaus.archiveparser.report.JarEarIndex;
+import net.e175.klaus.archiveparser.report.Pipeline;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class EarParsingTest {
 
 	private static final String SAMPLES_DIR = "src/test/resources/samples";
 
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
 	@Test
 	public void canFilterEars() {
 		final EarFilter lister = new EarFilter();
@@ -49,6 +76,115 @@ public class EarParsingTest {
 		assertThat(filteredNames, hasItem("dummyR519.ear"));
 	}
 
+	@Test
+	public void walksDirectoryTrees() throws IOException {
+		final File root1 = temp.newFolder("root1");
+		final File root2 = temp.newFolder("root2");
+		final File deployed = touch(root1, "domain1/deployments/appR001.ear");
+		touch(root1, "domain1/deployments/old/appR000.ear");
+		final File top = touch(root1, "topR001.ear");
+		final File nested = touch(root2, "a/b/c/nestedR002.ear");
+		touch(root2, "a/b/readme.txt");
+		final File exploded = new File(root2, "explodedR001.ear");
+		assertTrue(exploded.mkdir());
+
+		final EarFilter filter = new EarFilter();
+		filter.setExcludes("old");
+		assertEquals(new HashSet<File>(Arrays.asList(deployed, top, nested, exploded)),
+				toSet(filter.walkEarFiles(Arrays.asList(root1, root2), 3)));
+
+		filter.setIncludes("**/deployments/*.ear", "{top,other}R00?.ear");
+		assertEquals(new HashSet<File>(Arrays.asList(deployed, top)),
+				toSet(filter.walkEarFiles(Arrays.asList(root1, root2), 1)));
+	}
+
+	@Test
+	public void walksEachDirectoryInNameOrder() throws IOException {
+		final File root = temp.newFolder("root");
+		final List<File> ears = new ArrayList<File>();
+		for (final String name : new String[] { "mR001.ear", "aR001.ear", "zR001.ear", "bR001.ear" }) {
+			ears.add(touch(root, name));
+		}
+		Collections.sort(ears);
+
+		final List<File> found = new ArrayList<File>();
+		final Iterator<File> walk = new EarFilter().walkEarFiles(Arrays.asList(root), 3);
+		while (walk.hasNext()) {
+			found.add(walk.next());
+		}
+		assertEquals(ears, found);
+	}
+
+	@Test
+	public void stopsWalkingWhenClosed() throws IOException {
+		final File root = temp.newFolder("root");
+		for (int i = 0; i < 20; i++) {
+			touch(root, "dir" + i + "/appR001.ear");
+		}
+
+		final EarFilter.EarWalk walk = new EarFilter().walkEarFiles(Arrays.asList(root), 2);
+		assertTrue(walk.hasNext());
+		walk.next();
+		walk.close();
+		assertFalse(walk.hasNext());
+	}
+
+	@Test
+	public void rejectsMalformedGlobs() {
+		for (final String glob : new String[] { "{old,new", "old}", "{a,{b,c}}", "[abc", "**/[!x" }) {
+			try {
+				new EarFilter().setExcludes(glob);
+				fail("accepted " + glob);
+			} catch (final IllegalArgumentException e) {
+				assertThat(e.getMessage(), containsString(glob));
+			}
+		}
+	}
+
+	@Test
+	public void parsesEarsAsTheyAreFound() {
+		final EarFilter filter = new EarFilter();
+		filter.setExcludes("badthings");
+		final List<ArchiveFile> found = new EarJarParser(2).parseFiles(filter.walkEarFiles(
+				Arrays.asList(new File(SAMPLES_DIR)), 2));
+
+		final List<ArchiveFile> listed = new EarJarParser().parseFiles(filter.filterEarFiles(new File(SAMPLES_DIR)));
+		assertEquals(new HashSet<ArchiveFile>(listed), new HashSet<ArchiveFile>(found));
+	}
+
+	private static void copy(final File from, final File to) throws IOException {
+		final InputStream in = new FileInputStream(from);
+		try {
+			final OutputStream out = new FileOutputStream(to);
+			try {
+				final byte[] buffer = new byte[4096];
+				int count;
+				while ((count = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static File touch(final File root, final String path) throws IOException {
+		final File file = new File(root, path);
+		assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+		assertTrue(file.createNewFile());
+		return file;
+	}
+
+	private static Set<File> toSet(final Iterator<File> files) {
+		final Set<File> set = new HashSet<File>();
+		while (files.hasNext()) {
+			assertTrue(set.add(files.next()));
+		}
+		return set;
+	}
+
 	@Test(expected = IllegalArgumentException.class)
 	public void throwsExceptionForBadFiles() {
 		new ArchiveFile(new File("foo"), new MavenArchiveIDProvider());
@@ -103,6 +239,144 @@ public class EarParsingTest {
 		}
 	}
 
+	@Test
+	public void parsesConcurrentlyLikeSerially() {
+		final EarFilter filter = new EarFilter();
+		final List<File> filteredFiles = filter.filterEarFiles(new File(SAMPLES_DIR));
+
+		final List<ArchiveFile> serial = new EarJarParser().parseFiles(filteredFiles);
+		final List<ArchiveFile> concurrent = new EarJarParser(4).parseFiles(filteredFiles);
+
+		assertEquals(serial, concurrent);
+		for (int i = 0; i < serial.size(); i++) {
+			assertEquals(serial.get(i).contains(), concurrent.get(i).contains());
+		}
+
+		final ArchiveID targetArchive = new MavenArchiveID("dummy", "1.2.8", ArchiveType.JAR);
+		ArchiveFile shared = null;
+		for (final ArchiveFile ear : concurrent) {
+			for (final ArchiveFile contained : ear.contains()) {
+				if (contained.getArchiveID().equals(targetArchive)) {
+					if (shared == null) {
+						shared = contained;
+					}
+					assertSame(shared, contained);
+				}
+			}
+		}
+		assertNotNull(shared);
+		assertEquals(2, shared.containedIn().size());
+	}
+
+	@Test
+	public void parsesInVirtualThreadsLikeSerially() {
+		final List<File> filteredFiles = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+
+		final List<ArchiveFile> serial = new EarJarParser().parseFiles(filteredFiles);
+		// falls back to platform threads where there are no virtual ones
+		final EarJarParser parser = new EarJarParser();
+		parser.setVirtualThreads(2);
+		final List<ArchiveFile> virtual = parser.parseFiles(filteredFiles);
+
+		assertEquals(serial, virtual);
+		for (int i = 0; i < serial.size(); i++) {
+			assertEquals(serial.get(i).contains(), virtual.get(i).contains());
+		}
+	}
+
+	@Test
+	public void parsesEachEarInAVirtualThread() throws Exception {
+		assumeTrue(EarJarParser.isVirtualThreadsAvailable());
+		final List<File> filteredFiles = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+
+		final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+		final ArchiveScanner scanner = new TrueZipArchiveScanner();
+		final EarJarParser parser = new EarJarParser();
+		parser.setVirtualThreads(2);
+		parser.setArchiveScanner(new ArchiveScanner() {
+			@Override
+			public List<File> findContainedArchives(final File archive) {
+				threads.add(Thread.currentThread());
+				return scanner.findContainedArchives(archive);
+			}
+
+			@Override
+			public void release(final File archive) {
+				scanner.release(archive);
+			}
+		});
+		final List<ArchiveFile> virtual = parser.parseFiles(filteredFiles);
+
+		assertEquals(new EarJarParser().parseFiles(filteredFiles), virtual);
+		assertFalse(threads.isEmpty());
+		final Method isVirtual = Thread.class.getMethod("isVirtual");
+		for (final Thread thread : threads) {
+			assertEquals(thread.getName(), Boolean.TRUE, isVirtual.invoke(thread));
+		}
+	}
+
+	@Test
+	public void freezesContainmentGraph() {
+		final List<File> filteredFiles = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+
+		final List<ArchiveFile> lists = new EarJarParser().parseFiles(filteredFiles, new ArrayList<ArchiveFile>(),
+				new UniqueJarFactory());
+		final List<ArchiveFile> frozen = new EarJarParser().parseFiles(filteredFiles);
+
+		// contents of each EAR and containers of each of its JARs, recorded before freezing
+		final List<List<ArchiveFile>> expected = new ArrayList<List<ArchiveFile>>();
+		for (final ArchiveFile ear : lists) {
+			expected.add(new ArrayList<ArchiveFile>(ear.contains()));
+			for (final ArchiveFile jar : ear.contains()) {
+				expected.add(new ArrayList<ArchiveFile>(jar.containedIn()));
+			}
+		}
+		final ContainmentGraph graph = ContainmentGraph.freeze(lists);
+
+		int i = 0;
+		for (final ArchiveFile ear : frozen) {
+			assertEquals(expected.get(i++), ear.contains());
+			for (final ArchiveFile jar : ear.contains()) {
+				assertEquals(expected.get(i++), jar.containedIn());
+			}
+		}
+		assertEquals(expected.size(), i);
+
+		assertTrue(graph.size() > lists.size());
+		assertSame(lists.get(0), graph.get(0));
+		assertEquals(lists.get(0).contains(), frozen.get(0).contains());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void doesNotExposeFrozenGraph() {
+		final List<ArchiveFile> frozen = new EarJarParser().parseFiles(Arrays.asList(new File(SAMPLES_DIR,
+				"simpleearR001.ear")));
+
+		frozen.get(0).contains().add(frozen.get(0));
+	}
+
+	@Test
+	public void streamsArchivesInFileOrder() {
+		final List<File> filteredFiles = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+		final List<ArchiveFile> expected = new EarJarParser().parseFiles(filteredFiles);
+
+		final List<File> files = new ArrayList<File>();
+		final List<ArchiveFile> archives = new ArrayList<ArchiveFile>();
+		final JarEarIndex index = new JarEarIndex();
+		new EarJarParser(3).parseFiles(filteredFiles, new UniqueJarFactory(), new ArchiveSink() {
+			@Override
+			public void accept(final File file, final ArchiveFile archive) {
+				files.add(file);
+				archives.add(archive);
+				index.accept(file, archive);
+			}
+		});
+
+		assertEquals(filteredFiles, files);
+		assertEquals(expected, archives);
+		assertEquals(new JarEarIndex(expected).getJarIds(), index.getJarIds());
+	}
+
 	@Test
 	public void canListRelevantArchivesInEarNonRecursively() {
 		final ArchiveFile archive = new ArchiveFile(new File(SAMPLES_DIR, "simpleearR001.ear"),
@@ -147,6 +421,31 @@ public class EarParsingTest {
 
 	}
 
+	@Test
+	public void indexesConcreteJarVersionsPerEar() {
+		final EarJarParser lister = new EarJarParser();
+		final Collection<ArchiveFile> archiveFiles = lister.parseFiles(new EarFilter().filterEarFiles(new File(
+				SAMPLES_DIR)));
+
+		final JarEarIndex index = new JarEarIndex(archiveFiles);
+		final Map<ArchiveID, List<ArchiveFile>> jarEarMap = lister.getJarEarIdMap(archiveFiles);
+
+		assertEquals(new ArrayList<ArchiveID>(jarEarMap.keySet()), index.getJarIds());
+
+		final ArchiveID jarId = new MavenArchiveID("dummy", "*", ArchiveType.JAR);
+		assertEquals(2, index.getUsageCount(jarId));
+		for (final ArchiveFile ear : index.getEars(jarId)) {
+			final List<ArchiveFile> versions = index.getVersions(jarId, ear);
+			assertFalse(versions.isEmpty());
+			for (final ArchiveFile version : versions) {
+				assertTrue(version.equalsExceptVersion(jarId));
+				assertTrue(ear.contains().contains(version));
+			}
+		}
+		assertTrue(index.getVersions(new MavenArchiveID("nonexistent", "*", ArchiveType.JAR),
+				archiveFiles.iterator().next()).isEmpty());
+	}
+
 	@Test
 	public void createsOnlyOneArchiveFileObjectPerArchiveID() {
 
@@ -175,6 +474,19 @@ public class EarParsingTest {
 		assertSame(found1, found2);
 	}
 
+	@Test
+	public void countsDeduplicatedJars() {
+		final List<File> filteredFiles = Arrays.asList(new File(SAMPLES_DIR, "simpleearR001.ear"), new File(
+				SAMPLES_DIR, "anotherearR777.ear"));
+
+		final UniqueJarFactory factory = new UniqueJarFactory();
+		new EarJarParser().parseFiles(filteredFiles, new ArrayList<ArchiveFile>(), factory);
+
+		// dummy-1.2.8.jar is the only JAR found in both EARs
+		assertEquals(1, factory.getStatistics().getHits());
+		assertEquals(6, factory.getStatistics().getMisses());
+	}
+
 	@Test
 	public void knowsEnclosingArchives() {
 
@@ -202,4 +514,188 @@ public class EarParsingTest {
 		assertTrue(found1.containedIn().contains(ear2));
 	}
 
+	@Test
+	public void parsesLazilyOnFirstAccess() {
+		final File ear = new File(SAMPLES_DIR, "simpleearR001.ear");
+		final RecordingScanner scanner = new RecordingScanner();
+		final ArchiveFile lazy = new ArchiveFile(ear, new MavenArchiveIDProvider(), null, scanner,
+				ArchiveFile.UNLIMITED_DEPTH, true);
+
+		assertTrue(scanner.opened.isEmpty());
+		assertEquals(new ArchiveFile(ear, new MavenArchiveIDProvider()).contains(), lazy.contains());
+		assertThat(scanner.opened, hasItem("simpleearR001.ear"));
+	}
+
+	@Test
+	public void limitsParsingDepth() {
+		final File ear = new File(SAMPLES_DIR, "simpleearR001.ear");
+		final RecordingScanner scanner = new RecordingScanner();
+		final ArchiveFile limited = new ArchiveFile(ear, new MavenArchiveIDProvider(), null, scanner, 1, false);
+
+		// the WAR is a folder, so its JARs are found, but no JAR is opened
+		assertEquals(new ArchiveFile(ear, new MavenArchiveIDProvider()).contains(), limited.contains());
+		assertEquals(Arrays.asList("simpleearR001.ear", "dummy-1.2.4711.war"), scanner.opened);
+
+		assertTrue(new ArchiveFile(ear, new MavenArchiveIDProvider(), null, scanner, 0, false).contains().isEmpty());
+		assertEquals(2, scanner.opened.size());
+	}
+
+	@Test
+	public void reportsMetrics() {
+		final EarJarParser parser = new EarJarParser();
+		final Metrics metrics = new Metrics();
+		parser.setMetricsListener(metrics);
+		parser.parseFiles(Arrays.asList(new File(SAMPLES_DIR, "simpleearR001.ear")));
+
+		assertEquals(1, metrics.getCount(Phase.PARSE));
+		// the EAR, its WAR and all JARs
+		assertEquals(8, metrics.getCount(Phase.SCAN));
+		assertEquals(metrics.getCount(Phase.SCAN), metrics.getCount(Phase.RELEASE));
+		assertTrue(metrics.getCount(Phase.IDENTIFY) > 0);
+		assertTrue(metrics.getBytes(Phase.PARSE) > 0);
+	}
+
+	@Test
+	public void pipelinePassesArchivesToAllSinksInOrder() {
+		final List<File> files = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+		final List<ArchiveFile> expected = new EarJarParser().parseFiles(files);
+
+		final List<ArchiveFile> first = new ArrayList<ArchiveFile>();
+		final List<ArchiveFile> second = new ArrayList<ArchiveFile>();
+		final Pipeline pipeline = new Pipeline(new EarJarParser(3), 1);
+		pipeline.run(files.iterator(), collect(first), collect(second));
+
+		assertEquals(expected, first);
+		assertEquals(expected, second);
+		final List<Pipeline.QueueStatistics> queues = pipeline.getQueueStatistics();
+		assertEquals(3, queues.size());
+		for (final Pipeline.QueueStatistics queue : queues) {
+			assertEquals(files.size(), queue.getItems());
+			assertTrue(queue.getMaxDepth() <= 1);
+		}
+	}
+
+	@Test
+	public void pipelineFreezesArchivesOnceSinksAreDone() {
+		final List<File> files = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+		final List<ArchiveFile> archives = new ArrayList<ArchiveFile>();
+		final List<Boolean> frozenWhileAccepted = new ArrayList<Boolean>();
+		new Pipeline(new EarJarParser(3), 1).run(files.iterator(), collect(archives), new ArchiveSink() {
+			@Override
+			public void accept(final File file, final ArchiveFile archive) {
+				frozenWhileAccepted.add(archive.isFrozen());
+			}
+		});
+
+		assertEquals(files.size(), archives.size());
+		assertFalse(frozenWhileAccepted.contains(Boolean.TRUE));
+		for (final ArchiveFile ear : archives) {
+			assertTrue(ear.isFrozen());
+			for (final ArchiveFile jar : ear.contains()) {
+				assertTrue(jar.isFrozen());
+			}
+		}
+	}
+
+	@Test
+	public void freezesArchivesPassedToSink() {
+		final List<File> files = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+		final List<ArchiveFile> archives = new ArrayList<ArchiveFile>();
+		new EarJarParser(2).parseFiles(files, collect(archives));
+
+		assertEquals(files.size(), archives.size());
+		for (final ArchiveFile ear : archives) {
+			assertTrue(ear.isFrozen());
+		}
+	}
+
+	private static ArchiveSink collect(final List<ArchiveFile> archives) {
+		return new ArchiveSink() {
+			@Override
+			public void accept(final File file, final ArchiveFile archive) {
+				archives.add(archive);
+			}
+		};
+	}
+
+	@Test
+	public void unmountsArchivesAfterParsing() {
+		final TrueZipArchiveScanner scanner = new TrueZipArchiveScanner();
+		final EarJarParser parser = new EarJarParser();
+		parser.setArchiveScanner(scanner);
+		parser.parseFiles(Arrays.asList(new File(SAMPLES_DIR, "simpleearR001.ear")));
+		final int peakMounted = scanner.getPeakMountedArchives();
+		final long peakExtracted = scanner.getPeakExtractedBytes();
+		// the EAR, its WAR and all JARs
+		assertEquals(8, peakMounted);
+		assertTrue(peakExtracted > 0);
+		assertEquals(0, scanner.getMountedArchives());
+
+		// nothing is left mounted from the first EAR
+		parser.parseFiles(Arrays.asList(new File(SAMPLES_DIR, "simpleearR001.ear")));
+		assertEquals(peakMounted, scanner.getPeakMountedArchives());
+		assertEquals(peakExtracted, scanner.getPeakExtractedBytes());
+	}
+
+	@Test
+	public void parsesWithTrueZipFromSeveralThreads() throws IOException {
+		// several copies of each EAR, and each copy listed twice, so the same EAR is also scanned concurrently
+		final List<File> files = new ArrayList<File>();
+		for (final File ear : new EarFilter().filterEarFiles(new File(SAMPLES_DIR))) {
+			for (int i = 0; i < 4; i++) {
+				final File copy = new File(temp.newFolder("copy" + files.size()), ear.getName());
+				copy(ear, copy);
+				files.add(copy);
+				files.add(copy);
+			}
+		}
+
+		final List<ArchiveFile> serial = new EarJarParser().parseFiles(files);
+		final TrueZipArchiveScanner scanner = new TrueZipArchiveScanner();
+		final EarJarParser parser = new EarJarParser(8);
+		parser.setArchiveScanner(scanner);
+		final List<ArchiveFile> concurrent = parser.parseFiles(files);
+
+		assertEquals(serial, concurrent);
+		for (int i = 0; i < serial.size(); i++) {
+			assertEquals(serial.get(i).contains(), concurrent.get(i).contains());
+		}
+		assertEquals(0, scanner.getMountedArchives());
+	}
+
+	@Test
+	public void keepsRecentlyParsedArchivesMounted() {
+		final TrueZipArchiveScanner scanner = new TrueZipArchiveScanner(1);
+		final EarJarParser parser = new EarJarParser();
+		parser.setArchiveScanner(scanner);
+		final List<File> files = Arrays.asList(new File(SAMPLES_DIR, "simpleearR001.ear"), new File(SAMPLES_DIR,
+				"anotherearR777.ear"));
+		final List<ArchiveFile> first = parser.parseFiles(files);
+		// only the second EAR is still mounted
+		final int mounted = scanner.getMountedArchives();
+		assertTrue(mounted > 0);
+		assertTrue(mounted < scanner.getPeakMountedArchives());
+
+		assertEquals(first, parser.parseFiles(files));
+		assertEquals(mounted, scanner.getMountedArchives());
+		scanner.unmountReleased();
+		assertEquals(0, scanner.getMountedArchives());
+	}
+
+	private static final class RecordingScanner implements ArchiveScanner {
+		private final ArchiveScanner scanner = new TrueZipArchiveScanner();
+		private final List<String> opened = new ArrayList<String>();
+
+		@Override
+		public List<File> findContainedArchives(final File archive) {
+			opened.add(archive.getName());
+			return scanner.findContainedArchives(archive);
+		}
+
+		@Override
+		public void release(final File archive) {
+			scanner.release(archive);
+		}
+	}
+
 }
@@ -0,0 +1,70 @@
+package net.e175.klaus.archiveparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.e175.klaus.archiveparser.core.EntryNames;
+
+import org.junit.Test;
+
+public class EntryNamesTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void findsAllNamesAndOnlyThose() {
+		final List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			names.add("org/example/package" + i % 7 + "/Class" + i + ".class");
+		}
+		names.add("META-INF/MANIFEST.MF");
+		names.add("äöü.txt");
+		names.add("￿.txt");
+		names.add("😀.txt");
+		names.add("org/example/package1/Class1.class");
+
+		final EntryNames entries = EntryNames.of(names);
+		assertEquals(names.size() - 1, entries.size());
+
+		final List<String> sorted = new ArrayList<String>(names.subList(0, names.size() - 1));
+		Collections.sort(sorted, EntryNames.ORDER);
+		final List<String> iterated = new ArrayList<String>();
+		for (final String name : entries) {
+			iterated.add(name);
+		}
+		assertEquals(sorted, iterated);
+
+		int bytes = 0;
+		for (int i = 0; i < sorted.size(); i++) {
+			assertEquals(i, entries.indexOf(sorted.get(i)));
+			assertEquals(sorted.get(i), entries.get(i));
+			bytes += sorted.get(i).getBytes(UTF8).length;
+		}
+		assertFalse(entries.contains("org/example/package1/Class2.class"));
+		assertFalse(entries.contains("org/example/package1/Class1"));
+		assertFalse(entries.contains(""));
+		assertFalse(entries.contains("￿￿"));
+		assertTrue(entries.getMemorySize() < bytes / 2);
+	}
+
+	@Test
+	public void ordersLikeUtf8() {
+		final String[] ordered = { "", "a", "ab", "b", "ä", "￿", "😀" };
+		for (int i = 1; i < ordered.length; i++) {
+			assertTrue(EntryNames.ORDER.compare(ordered[i - 1], ordered[i]) < 0);
+			assertTrue(EntryNames.ORDER.compare(ordered[i], ordered[i - 1]) > 0);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnorderedNames() {
+		new EntryNames.Builder().add("b").add("a");
+	}
+
+}
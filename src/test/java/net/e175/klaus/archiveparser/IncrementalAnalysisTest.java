@@ -0,0 +1,91 @@
+package net.e175.klaus.archiveparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.id.ArchiveID;
+import net.e175.klaus.archiveparser.id.ArchiveType;
+import net.e175.klaus.archiveparser.id.MavenArchiveID;
+import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarAnalysis;
+import net.e175.klaus.archiveparser.report.EarJarParser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalAnalysisTest {
+
+	private static final String SAMPLES_DIR = "src/test/resources/samples";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void reparsesOnlyChangedEars() throws IOException {
+		final File dir = temp.getRoot();
+		copy("simpleearR001.ear", "simpleearR001.ear");
+		copy("anotherearR777.ear", "anotherearR777.ear");
+		copy("dummyR020.ear", "dummyR020.ear");
+
+		final EarFilter filter = new EarFilter();
+		final EarJarParser parser = new EarJarParser();
+		final EarJarAnalysis analysis = parser.analyze(filter.filterEarFiles(dir));
+		final ArchiveFile unchanged = analysis.getArchives().get(2);
+		final ArchiveID dummyJars = new MavenArchiveID("dummy", "*", ArchiveType.JAR);
+		assertEquals(2, analysis.getJarEarMap().get(dummyJars).size());
+
+		// anotherearR777 is removed, dummyR020 replaced by an EAR containing JARs, fuffiR001 is new
+		assertTrue(new File(dir, "anotherearR777.ear").delete());
+		copy("anotherearR777.ear", "dummyR020.ear");
+		assertTrue(new File(dir, "dummyR020.ear").setLastModified(new File(dir, "dummyR020.ear").lastModified() - 10000));
+		copy("fuffiR001.ear", "fuffiR001.ear");
+
+		final List<File> ears = filter.filterEarFiles(dir);
+		assertSame(analysis, parser.update(analysis, ears));
+		assertSame(unchanged, analysis.getArchives().get(2));
+
+		final EarJarAnalysis fresh = parser.analyze(ears);
+		assertEquals(fresh.getArchives(), analysis.getArchives());
+		assertEquals(fresh.getJarEarMap(), analysis.getJarEarMap());
+
+		final Map<ArchiveID, List<ArchiveFile>> jarEarMap = analysis.getJarEarMap();
+		assertEquals(2, jarEarMap.get(dummyJars).size());
+		for (final ArchiveFile jar : unchanged.contains()) {
+			for (final ArchiveFile container : jar.containedIn()) {
+				assertFalse(container.getArchiveID().getName().startsWith("anotherear"));
+			}
+		}
+	}
+
+	private void copy(final String sample, final String target) throws IOException {
+		final InputStream in = new FileInputStream(new File(SAMPLES_DIR, sample));
+		try {
+			final OutputStream out = new FileOutputStream(new File(temp.getRoot(), target));
+			try {
+				final byte[] buffer = new byte[4096];
+				int count;
+				while ((count = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+package net.e175.klaus.archiveparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import net.e175.klaus.archiveparser.cache.CachingArchiveScanner;
+import net.e175.klaus.archiveparser.cache.ParseCache;
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.core.ArchiveScanner;
+import net.e175.klaus.archiveparser.core.CentralDirectoryScanner;
+import net.e175.klaus.archiveparser.core.TrueZipArchiveScanner;
+import net.e175.klaus.archiveparser.core.UniqueJarFactory;
+import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarParser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParseCacheTest {
+
+	private static final String SAMPLES_DIR = "src/test/resources/samples";
+
+	/** fails whenever an archive would actually have to be opened */
+	private static final class FailingScanner implements ArchiveScanner {
+		@Override
+		public List<File> findContainedArchives(final File archive) {
+			throw new AssertionError("should have been cached: " + archive);
+		}
+
+		@Override
+		public void release(final File archive) {
+		}
+	}
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void replaysUnchangedArchivesFromCache() throws IOException {
+		final File cacheFile = new File(temp.getRoot(), "parse.cache");
+		final List<File> ears = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+
+		final ParseCache firstCache = new ParseCache(cacheFile);
+		final List<ArchiveFile> firstRun = parse(ears, new CachingArchiveScanner(new TrueZipArchiveScanner(),
+				firstCache));
+		assertEquals(0, firstCache.getHits());
+		firstCache.save();
+
+		final ParseCache secondCache = new ParseCache(cacheFile);
+		final List<ArchiveFile> secondRun = parse(ears, new CachingArchiveScanner(new FailingScanner(), secondCache));
+		assertEquals(ears.size(), secondCache.getHits());
+
+		assertEquals(firstRun, secondRun);
+		for (int i = 0; i < firstRun.size(); i++) {
+			assertEquals(firstRun.get(i).contains(), secondRun.get(i).contains());
+			for (int j = 0; j < firstRun.get(i).contains().size(); j++) {
+				assertEquals(firstRun.get(i).contains().get(j).containedIn(), secondRun.get(i).contains().get(j)
+						.containedIn());
+			}
+		}
+	}
+
+	@Test
+	public void ignoresCacheOfChangedArchives() throws IOException {
+		final File cacheFile = new File(temp.getRoot(), "parse.cache");
+		final File ear = new File(temp.getRoot(), "simpleearR001.ear");
+		copy(new File(SAMPLES_DIR, "simpleearR001.ear"), ear);
+		final List<File> ears = Collections.singletonList(ear);
+
+		final ParseCache cache = new ParseCache(cacheFile);
+		parse(ears, new CachingArchiveScanner(new TrueZipArchiveScanner(), cache));
+		cache.save();
+
+		assertTrue(ear.setLastModified(ear.lastModified() - 10000));
+		final ParseCache reloaded = new ParseCache(cacheFile);
+		final List<ArchiveFile> reparsed = parse(ears, new CachingArchiveScanner(new TrueZipArchiveScanner(),
+				reloaded));
+		assertEquals(0, reloaded.getHits());
+		assertEquals(6, reparsed.get(0).contains().size());
+	}
+
+	@Test
+	public void recognisesReplayedJarsByContent() throws IOException {
+		final byte[] jar = zip("a/A.class");
+		final List<File> ears = Arrays.asList(write("originalR001.ear", zip("lib/foo-1.0.jar", jar)), write(
+				"renamedR001.ear", zip("lib/foo-renamed-1.0.jar", jar)));
+
+		for (final UniqueJarFactory.JarIdentity identity : new UniqueJarFactory.JarIdentity[] {
+				UniqueJarFactory.JarIdentity.CONTENT, UniqueJarFactory.JarIdentity.CONTENT_DIGEST }) {
+			final File cacheFile = new File(temp.getRoot(), identity + ".cache");
+			final ParseCache cache = new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, false,
+					"centraldirectory", true);
+			parse(ears, new CachingArchiveScanner(new CentralDirectoryScanner(), cache), identity);
+			cache.save();
+
+			final List<ArchiveFile> replayed = parse(ears, new CachingArchiveScanner(new FailingScanner(),
+					new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, false, "centraldirectory", true)),
+					identity);
+			assertSame(replayed.get(0).contains().get(0), replayed.get(1).contains().get(0));
+		}
+	}
+
+	@Test
+	public void discardsCacheWrittenForOtherScannerOrDigests() throws IOException {
+		final File cacheFile = new File(temp.getRoot(), "parse.cache");
+		final List<File> ears = new EarFilter().filterEarFiles(new File(SAMPLES_DIR));
+		final ParseCache cache = new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, false, "truezip", false);
+		parse(ears, new CachingArchiveScanner(new TrueZipArchiveScanner(), cache));
+		cache.save();
+
+		for (final ParseCache other : new ParseCache[] {
+				new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, false, "centraldirectory", false),
+				new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, false, "truezip", true) }) {
+			parse(ears, new CachingArchiveScanner(new CentralDirectoryScanner(), other));
+			assertEquals(0, other.getHits());
+		}
+		final ParseCache same = new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, false, "truezip", false);
+		parse(ears, new CachingArchiveScanner(new FailingScanner(), same));
+		assertEquals(ears.size(), same.getHits());
+	}
+
+	@Test
+	public void findsMovedArchivesByDigest() throws IOException {
+		final File cacheFile = new File(temp.getRoot(), "parse.cache");
+		final File ear = new File(temp.getRoot(), "simpleearR001.ear");
+		copy(new File(SAMPLES_DIR, "simpleearR001.ear"), ear);
+
+		final ParseCache cache = new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, true);
+		parse(Collections.singletonList(ear), new CachingArchiveScanner(new TrueZipArchiveScanner(), cache));
+		cache.save();
+
+		final File moved = new File(temp.newFolder("moved"), ear.getName());
+		assertTrue(ear.renameTo(moved));
+		final ParseCache reloaded = new ParseCache(cacheFile, ParseCache.DEFAULT_MAX_ENTRIES, true);
+		final List<ArchiveFile> replayed = parse(Collections.singletonList(moved), new CachingArchiveScanner(
+				new FailingScanner(), reloaded));
+		assertEquals(1, reloaded.getHits());
+		assertEquals(6, replayed.get(0).contains().size());
+	}
+
+	private File write(final String name, final byte[] bytes) throws IOException {
+		final File file = new File(temp.getRoot(), name);
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static byte[] zip(final Object... nameOrContent) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ZipOutputStream zip = new ZipOutputStream(bytes);
+		for (int i = 0; i < nameOrContent.length; i += 2) {
+			zip.putNextEntry(new ZipEntry((String) nameOrContent[i]));
+			if (i + 1 < nameOrContent.length) {
+				zip.write((byte[]) nameOrContent[i + 1]);
+			}
+			zip.closeEntry();
+		}
+		zip.close();
+		return bytes.toByteArray();
+	}
+
+	private static void copy(final File from, final File to) throws IOException {
+		final InputStream in = new FileInputStream(from);
+		try {
+			final OutputStream out = new FileOutputStream(to);
+			try {
+				final byte[] buffer = new byte[4096];
+				int count;
+				while ((count = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static List<ArchiveFile> parse(final List<File> ears, final ArchiveScanner scanner) {
+		return parse(ears, scanner, UniqueJarFactory.JarIdentity.NAME);
+	}
+
+	private static List<ArchiveFile> parse(final List<File> ears, final ArchiveScanner scanner,
+			final UniqueJarFactory.JarIdentity identity) {
+		final EarJarParser parser = new EarJarParser();
+		parser.setArchiveScanner(scanner);
+		parser.setJarIdentity(identity);
+		return parser.parseFiles(ears);
+	}
+
+}
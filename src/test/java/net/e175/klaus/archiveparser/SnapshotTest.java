@@ -0,0 +1,79 @@
+package net.e175.klaus.archiveparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import net.e175.klaus.archiveparser.core.ArchiveFile;
+import net.e175.klaus.archiveparser.report.EarFilter;
+import net.e175.klaus.archiveparser.report.EarJarParser;
+import net.e175.klaus.archiveparser.snapshot.Snapshot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotTest {
+
+	private static final String SAMPLES_DIR = "src/test/resources/samples";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsWhatWasWritten() throws IOException {
+		final List<ArchiveFile> parsed = new EarJarParser().parseFiles(new EarFilter().filterEarFiles(new File(
+				SAMPLES_DIR)));
+		final File file = new File(folder.getRoot(), "estate.snapshot");
+
+		Snapshot.write(parsed, file);
+		final List<ArchiveFile> read = Snapshot.read(file);
+
+		assertEquals(parsed, read);
+		for (int i = 0; i < parsed.size(); i++) {
+			assertEquals(parsed.get(i).getArchiveID(), read.get(i).getArchiveID());
+			assertEquals(parsed.get(i).contains(), read.get(i).contains());
+			assertEquals(parsed.get(i).containedIn(), read.get(i).containedIn());
+			for (int j = 0; j < parsed.get(i).contains().size(); j++) {
+				final ArchiveFile jar = read.get(i).contains().get(j);
+				assertEquals(parsed.get(i).contains().get(j).getArchiveID(), jar.getArchiveID());
+				assertEquals(parsed.get(i).contains().get(j).containedIn(), jar.containedIn());
+				for (final ArchiveFile container : jar.containedIn()) {
+					// shared JARs are shared again
+					if (read.contains(container)) {
+						assertTrue(containsSame(container.contains(), jar));
+					}
+				}
+			}
+		}
+	}
+
+	private static boolean containsSame(final List<ArchiveFile> archives, final ArchiveFile archive) {
+		for (final ArchiveFile candidate : archives) {
+			if (candidate == archive) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsTruncatedSnapshots() throws IOException {
+		final List<ArchiveFile> parsed = new EarJarParser().parseFiles(new EarFilter().filterEarFiles(new File(
+				SAMPLES_DIR)));
+		final File file = new File(folder.getRoot(), "estate.snapshot");
+		Snapshot.write(parsed, file);
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(raf.length() - 3);
+		} finally {
+			raf.close();
+		}
+		Snapshot.read(file);
+	}
+}
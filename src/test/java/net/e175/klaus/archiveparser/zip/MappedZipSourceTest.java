@@ -0,0 +1,124 @@
+package net.e175.klaus.archiveparser.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedZipSourceTest {
+
+	/** small enough to make most reads cross chunks */
+	private static final int CHUNK_SIZE = 64;
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void readsAcrossChunksLikeFileReads() throws IOException {
+		final byte[] bytes = new byte[10 * CHUNK_SIZE + 17];
+		new Random(42).nextBytes(bytes);
+		final File file = write(bytes);
+
+		final ZipSource mapped = new MappedZipSource(file, CHUNK_SIZE);
+		final ZipSource plain = new FileZipSource(file);
+		try {
+			assertEquals(plain.length(), mapped.length());
+			final long[][] reads = { { 0, CHUNK_SIZE }, { CHUNK_SIZE - 1, 2 }, { 60, 10 }, { 100, 3 * CHUNK_SIZE },
+					{ 0, bytes.length }, { bytes.length - CHUNK_SIZE - 5, CHUNK_SIZE + 5 }, { bytes.length - 1, 1 },
+					{ bytes.length, 0 } };
+			for (final long[] read : reads) {
+				assertSameReads(plain, mapped, read[0], (int) read[1]);
+			}
+
+			// slices starting and ending within chunks
+			final ZipSource plainSlice = new SliceZipSource(plain, CHUNK_SIZE + 7, 4 * CHUNK_SIZE);
+			final ZipSource mappedSlice = new SliceZipSource(mapped, CHUNK_SIZE + 7, 4 * CHUNK_SIZE);
+			for (final long[] read : new long[][] { { 0, 4 * CHUNK_SIZE }, { CHUNK_SIZE - 8, 2 }, { 50, 150 },
+					{ 4 * CHUNK_SIZE - 1, 1 } }) {
+				assertSameReads(plainSlice, mappedSlice, read[0], (int) read[1]);
+			}
+		} finally {
+			mapped.close();
+			plain.close();
+		}
+	}
+
+	@Test(expected = EOFException.class)
+	public void failsToReadBeyondEnd() throws IOException {
+		final ZipSource mapped = new MappedZipSource(write(new byte[3 * CHUNK_SIZE]), CHUNK_SIZE);
+		try {
+			mapped.read(2 * CHUNK_SIZE + 1, new byte[CHUNK_SIZE], 0, CHUNK_SIZE);
+		} finally {
+			mapped.close();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsChunkSizesNotPowersOfTwo() throws IOException {
+		new MappedZipSource(write(new byte[1]), 100);
+	}
+
+	@Test
+	public void readsCentralDirectorySpanningChunks() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ZipOutputStream zip = new ZipOutputStream(bytes);
+		for (int i = 0; i < 20; i++) {
+			zip.putNextEntry(new ZipEntry("lib/some-rather-long-name-" + i + ".jar"));
+			zip.write(new byte[i * 10]);
+			zip.closeEntry();
+		}
+		zip.close();
+		final File file = write(bytes.toByteArray());
+
+		final ZipSource mapped = new MappedZipSource(file, CHUNK_SIZE);
+		final ZipSource plain = new FileZipSource(file);
+		try {
+			final List<ZipEntryInfo> expected = CentralDirectory.read(plain);
+			final List<ZipEntryInfo> actual = CentralDirectory.read(mapped);
+			assertEquals(20, actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).toString(), actual.get(i).toString());
+				assertEquals(expected.get(i).getCrc(), actual.get(i).getCrc());
+				assertEquals(expected.get(i).getLocalHeaderOffset(), actual.get(i).getLocalHeaderOffset());
+			}
+		} finally {
+			mapped.close();
+			plain.close();
+		}
+	}
+
+	private static void assertSameReads(final ZipSource expected, final ZipSource actual, final long position,
+			final int length) throws IOException {
+		final byte[] expectedBytes = new byte[length];
+		final byte[] actualBytes = new byte[length + 2];
+		expected.read(position, expectedBytes, 0, length);
+		actual.read(position, actualBytes, 1, length);
+		final byte[] read = new byte[length];
+		System.arraycopy(actualBytes, 1, read, 0, length);
+		assertArrayEquals("at " + position + "+" + length, expectedBytes, read);
+	}
+
+	private File write(final byte[] bytes) throws IOException {
+		final File file = temp.newFile("source" + temp.getRoot().list().length + ".zip");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+}